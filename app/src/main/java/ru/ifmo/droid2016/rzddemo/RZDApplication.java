@@ -1,8 +1,17 @@
 package ru.ifmo.droid2016.rzddemo;
 
 import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
 
+import com.facebook.stetho.DumperPluginsProvider;
 import com.facebook.stetho.Stetho;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import ru.ifmo.droid2016.rzddemo.cache.TimetableCache;
+import ru.ifmo.droid2016.rzddemo.loader.TimetableDumperPlugin;
+import ru.ifmo.droid2016.rzddemo.utils.AndroidLogger;
+import ru.ifmo.droid2016.rzddemo.utils.LogUtils;
 
 /**
  * Created by dmitry.trunin on 08.11.2016.
@@ -13,6 +22,27 @@ public class RZDApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
-        Stetho.initializeWithDefaults(this);
+        LogUtils.setLogger(new AndroidLogger());
+        final Context context = this;
+        Stetho.initialize(Stetho.newInitializerBuilder(context)
+                .enableDumpapp(new DumperPluginsProvider() {
+                    @Override
+                    public Iterable<DumperPlugin> get() {
+                        return new Stetho.DefaultDumperPluginsBuilder(context)
+                                .provide(new TimetableDumperPlugin(context))
+                                .finish();
+                    }
+                })
+                .enableWebKitInspector(Stetho.defaultInspectorModulesProvider(context))
+                .build());
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            // В фоне процесс могут завершить в любой момент -- не откладываем запись кэша
+            TimetableCache.requestFlush();
+        }
     }
 }
@@ -19,15 +19,18 @@ import java.util.Calendar;
 import java.util.List;
 
 import ru.ifmo.droid2016.rzddemo.cache.DataSchemeVersion;
+import ru.ifmo.droid2016.rzddemo.cache.TimetableCache;
 import ru.ifmo.droid2016.rzddemo.loader.LoadResult;
+import ru.ifmo.droid2016.rzddemo.loader.RangeFetchMode;
 import ru.ifmo.droid2016.rzddemo.loader.ResultType;
 import ru.ifmo.droid2016.rzddemo.loader.TimetableLoader;
-import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.loader.TimetablePrefetcher;
+import ru.ifmo.droid2016.rzddemo.loader.TimetableRangeLoader;
 import ru.ifmo.droid2016.rzddemo.utils.RecylcerDividersDecorator;
 import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
 
 public class TimetableActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<LoadResult<List<TimetableEntry>>>,
+        LoaderManager.LoaderCallbacks<LoadResult<List<TimetableRow>>>,
         View.OnClickListener {
 
     private static final String EXTRA_FROM_STATION_ID = "from_station_id";
@@ -37,8 +40,25 @@ public class TimetableActivity extends AppCompatActivity implements
     private static final String EXTRA_VERSION = "version";
 
     private static final String ARG_DATE = "date";
+    private static final String ARG_WEEK = "week";
 
     private static final String KEY_CURRENT_DATE = "current_date";
+    private static final String KEY_WEEK_MODE = "week_mode";
+
+    /**
+     * Сколько дней показывается в режиме недели.
+     */
+    private static final int WEEK_DAYS = 7;
+
+    /**
+     * На сколько дней вперед и назад от текущей даты заранее загружать расписание.
+     */
+    private static final int PREFETCH_WINDOW_DAYS = 1;
+
+    /**
+     * Расписание из кэша старше этого возраста показывается сразу и обновляется из сети.
+     */
+    private static final long CACHE_MAX_AGE_MILLIS = 30 * 60 * 1000;
 
     private RecyclerView recyclerView;
     private ProgressBar progressView;
@@ -51,6 +71,12 @@ public class TimetableActivity extends AppCompatActivity implements
     private Calendar currentDate;
     private boolean isPreviousDateEnabled;
 
+    /**
+     * Показывается расписание сразу на {@link #WEEK_DAYS} дней, начиная с currentDate.
+     * Переключается нажатием на дату.
+     */
+    private boolean isWeekMode;
+
     private java.text.DateFormat dateFormat;
 
     @Nullable
@@ -85,6 +111,7 @@ public class TimetableActivity extends AppCompatActivity implements
 
         previousButton.setOnClickListener(this);
         nextButton.setOnClickListener(this);
+        dateView.setOnClickListener(this);
 
         recyclerView = (RecyclerView) findViewById(R.id.recycler);
         recyclerView.setLayoutManager(new LinearLayoutManager(this));
@@ -93,6 +120,7 @@ public class TimetableActivity extends AppCompatActivity implements
 
         if (savedInstanceState != null) {
             currentDate = (Calendar) savedInstanceState.getSerializable(KEY_CURRENT_DATE);
+            isWeekMode = savedInstanceState.getBoolean(KEY_WEEK_MODE);
         }
         if (currentDate == null) {
             currentDate = TimeUtils.getCurrentTime(TimeUtils.getMskTimeZone());
@@ -111,6 +139,7 @@ public class TimetableActivity extends AppCompatActivity implements
 
         Bundle args = new Bundle();
         args.putSerializable(ARG_DATE, currentDate);
+        args.putBoolean(ARG_WEEK, isWeekMode);
         args.putAll(getIntent().getExtras());
         if (force) {
             getSupportLoaderManager().restartLoader(0, args, this);
@@ -119,14 +148,22 @@ public class TimetableActivity extends AppCompatActivity implements
         }
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // После остановки процесс могут завершить в любой момент -- не откладываем запись кэша
+        TimetableCache.requestFlush();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         outState.putSerializable(KEY_CURRENT_DATE, currentDate);
+        outState.putBoolean(KEY_WEEK_MODE, isWeekMode);
     }
 
     @Override
-    public Loader<LoadResult<List<TimetableEntry>>> onCreateLoader(int id, Bundle args) {
+    public Loader<LoadResult<List<TimetableRow>>> onCreateLoader(int id, Bundle args) {
         Calendar fromDate = (Calendar) args.getSerializable(ARG_DATE);
         if (fromDate == null) {
             fromDate = TimeUtils.getCurrentTime(TimeUtils.getMskTimeZone());
@@ -142,35 +179,55 @@ public class TimetableActivity extends AppCompatActivity implements
                 args.getString(EXTRA_TO_STATION_NAME, Constants.DEMO_TO_STATION_NAME);
         final @DataSchemeVersion int version = args.getInt(EXTRA_VERSION, DataSchemeVersion.V1);
 
+        if (args.getBoolean(ARG_WEEK)) {
+            return new TimetableRangeLoader(this, fromStationId, fromStationName, toStationId,
+                    toStationName, fromDate, WEEK_DAYS, RangeFetchMode.WIDE_WINDOW, version);
+        }
         return new TimetableLoader(this, fromStationId, fromStationName, toStationId,
-                toStationName, fromDate, toDate, version);
+                toStationName, fromDate, toDate, version, CACHE_MAX_AGE_MILLIS);
     }
 
     @Override
-    public void onLoadFinished(Loader<LoadResult<List<TimetableEntry>>> loader,
-                               LoadResult<List<TimetableEntry>> result) {
-        if (result.resultType == ResultType.OK) {
+    public void onLoadFinished(Loader<LoadResult<List<TimetableRow>>> loader,
+                               LoadResult<List<TimetableRow>> result) {
+        if (result.partial) {
+            // Первые поезда или устаревшие данные из кэша показываем сразу,
+            // загрузка при этом продолжается
+            if (result.data != null && !result.data.isEmpty()) {
+                displayNonEmptyData(result.data);
+            }
+        } else if (result.resultType == ResultType.OK) {
             if (result.data != null && !result.data.isEmpty()) {
                 displayNonEmptyData(result.data);
             } else {
                 displayEmptyData();
             }
+            if (loader instanceof TimetableLoader) {
+                prefetchAdjacentDays((TimetableLoader) loader);
+            }
         } else {
             displayError(result.resultType);
         }
     }
 
     @Override
-    public void onLoaderReset(Loader<LoadResult<List<TimetableEntry>>> loader) {
+    public void onLoaderReset(Loader<LoadResult<List<TimetableRow>>> loader) {
         displayEmptyData();
     }
 
     @Override
     public void onClick(View view) {
+        final int step = isWeekMode ? WEEK_DAYS : 1;
         if (view == previousButton) {
-            currentDate.add(Calendar.DAY_OF_MONTH, -1);
+            currentDate.add(Calendar.DAY_OF_MONTH, -step);
+            final Calendar now = TimeUtils.getCurrentTime(TimeUtils.getMskTimeZone());
+            if (currentDate.before(now)) {
+                currentDate = now;
+            }
         } else if (view == nextButton) {
-            currentDate.add(Calendar.DAY_OF_MONTH, 1);
+            currentDate.add(Calendar.DAY_OF_MONTH, step);
+        } else if (view == dateView) {
+            isWeekMode = !isWeekMode;
         }
         isPreviousDateEnabled =
                 currentDate.after(TimeUtils.getTomorrow0(TimeUtils.getMskTimeZone()));
@@ -185,7 +242,7 @@ public class TimetableActivity extends AppCompatActivity implements
         enableButton();
     }
 
-    private void displayNonEmptyData(List<TimetableEntry> data) {
+    private void displayNonEmptyData(List<TimetableRow> data) {
         if (adapter == null) {
             adapter = new TimetableRecyclerAdapter(this, data);
             recyclerView.setAdapter(adapter);
@@ -212,6 +269,11 @@ public class TimetableActivity extends AppCompatActivity implements
         enableButton();
     }
 
+    private void prefetchAdjacentDays(@NonNull TimetableLoader loader) {
+        TimetablePrefetcher.getInstance(this, loader.getVersion())
+                .prefetchAround(loader.getRequest(), PREFETCH_WINDOW_DAYS);
+    }
+
     private void disableButtons() {
         previousButton.setEnabled(false);
         nextButton.setEnabled(false);
@@ -224,7 +286,15 @@ public class TimetableActivity extends AppCompatActivity implements
     }
 
     private void displayDate() {
-        dateView.setText(dateFormat.format(currentDate.getTime()));
+        if (isWeekMode) {
+            final Calendar lastDate = (Calendar) currentDate.clone();
+            lastDate.add(Calendar.DAY_OF_MONTH, WEEK_DAYS - 1);
+            dateView.setText(getString(R.string.week_range_format,
+                    dateFormat.format(currentDate.getTime()),
+                    dateFormat.format(lastDate.getTime())));
+        } else {
+            dateView.setText(dateFormat.format(currentDate.getTime()));
+        }
         previousButton.setVisibility(isPreviousDateEnabled ? View.VISIBLE : View.INVISIBLE);
     }
 }
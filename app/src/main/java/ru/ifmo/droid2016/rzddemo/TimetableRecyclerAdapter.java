@@ -1,42 +1,123 @@
 package ru.ifmo.droid2016.rzddemo;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
-import android.text.format.DateFormat;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
 
 class TimetableRecyclerAdapter
         extends RecyclerView.Adapter<TimetableRecyclerAdapter.TimetableViewHolder> {
 
+    /**
+     * Разница между старым и новым списком считается здесь, а не в главном потоке.
+     */
+    private static final Executor diffExecutor = Executors.newSingleThreadExecutor();
+
     @NonNull
-    private List<TimetableEntry> data;
+    private List<TimetableRow> data;
 
     @NonNull
     private final LayoutInflater layoutInflater;
 
     @NonNull
-    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Номер последнего вызова setData: результаты устаревших расчетов разницы отбрасываются
+    private int dataVersion;
 
 
     public TimetableRecyclerAdapter(@NonNull Context context,
-                                    @NonNull List<TimetableEntry> data) {
+                                    @NonNull List<TimetableRow> data) {
         this.data = data;
         layoutInflater = LayoutInflater.from(context);
-        this.context = context;
-        setHasStableIds(false);
+        setHasStableIds(true);
     }
 
-    public void setData(@NonNull List<TimetableEntry> data) {
-        this.data = data;
-        notifyDataSetChanged();
+    /**
+     * Заменяет данные. Обновляются только изменившиеся строки; пока разница считается,
+     * адаптер показывает прежний список.
+     */
+    @MainThread
+    public void setData(@NonNull final List<TimetableRow> newData) {
+        final int version = ++dataVersion;
+        final List<TimetableRow> oldData = data;
+        if (oldData.isEmpty() || newData.isEmpty()) {
+            data = newData;
+            notifyDataSetChanged();
+            return;
+        }
+        diffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = calculateDiff(oldData, newData);
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (version == dataVersion) {
+                            data = newData;
+                            diff.dispatchUpdatesTo(TimetableRecyclerAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @WorkerThread
+    @NonNull
+    private static DiffUtil.DiffResult calculateDiff(@NonNull final List<TimetableRow> oldData,
+                                                     @NonNull final List<TimetableRow> newData) {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldData.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newData.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return isSameTrain(oldData.get(oldPosition).entry,
+                                   newData.get(newPosition).entry);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return oldData.get(oldPosition).entry.equals(newData.get(newPosition).entry);
+            }
+        });
+    }
+
+    /**
+     * Поезд определяется номером и временем отправления.
+     */
+    private static boolean isSameTrain(@NonNull TimetableEntry a, @NonNull TimetableEntry b) {
+        return a.departureTimeMinutes == b.departureTimeMinutes
+                && a.trainRouteId.equals(b.trainRouteId);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        final TimetableEntry entry = data.get(position).entry;
+        return ((long) entry.trainRouteId.hashCode() << 32)
+                | (entry.departureTimeMinutes & 0xffffffffL);
     }
 
     @Override
@@ -46,22 +127,11 @@ class TimetableRecyclerAdapter
 
     @Override
     public void onBindViewHolder(TimetableViewHolder holder, int position) {
-        final TimetableEntry entry = data.get(position);
-        final String trainIdText = entry.trainName == null
-                ? context.getString(R.string.train_id_format, entry.trainRouteId)
-                : context.getString(R.string.train_id_name_format, entry.trainRouteId,
-                                    entry.trainName);
-        holder.trainIdView.setText(trainIdText);
-        holder.routeDescriptionView.setText(context.getString(R.string.route_descr_format,
-                entry.routeStartStationName, entry.routeEndStationName));
-
-        CharSequence departureTime = DateFormat.format("HH:mm", entry.departureTime);
-        holder.departureInfoView.setText(context.getString(R.string.departure_format,
-                entry.departureStationName, departureTime));
-
-        CharSequence arrivalTime = DateFormat.format("HH:mm", entry.arrivalTime);
-        holder.arrivalInfoView.setText(context.getString(R.string.arrival_format,
-                entry.arrivalStationName, arrivalTime));
+        final TimetableRow row = data.get(position);
+        holder.trainIdView.setText(row.trainIdText);
+        holder.routeDescriptionView.setText(row.routeDescriptionText);
+        holder.departureInfoView.setText(row.departureInfoText);
+        holder.arrivalInfoView.setText(row.arrivalInfoText);
     }
 
     @Override
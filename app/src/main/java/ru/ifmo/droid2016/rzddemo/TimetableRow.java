@@ -0,0 +1,141 @@
+package ru.ifmo.droid2016.rzddemo;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+/**
+ * Строка списка расписания, готовая к показу: все тексты уже отформатированы, поэтому
+ * {@link TimetableRecyclerAdapter} при привязке только присваивает их.
+ *
+ * Создается в потоке загрузчика (см. {@link Factory}).
+ */
+public final class TimetableRow {
+
+    /**
+     * Элемент расписания, по которому построена строка.
+     */
+    @NonNull
+    public final TimetableEntry entry;
+
+    @NonNull
+    public final CharSequence trainIdText;
+    @NonNull
+    public final CharSequence routeDescriptionText;
+    @NonNull
+    public final CharSequence departureInfoText;
+    @NonNull
+    public final CharSequence arrivalInfoText;
+
+    private TimetableRow(@NonNull TimetableEntry entry,
+                         @NonNull CharSequence trainIdText,
+                         @NonNull CharSequence routeDescriptionText,
+                         @NonNull CharSequence departureInfoText,
+                         @NonNull CharSequence arrivalInfoText) {
+        this.entry = entry;
+        this.trainIdText = trainIdText;
+        this.routeDescriptionText = routeDescriptionText;
+        this.departureInfoText = departureInfoText;
+        this.arrivalInfoText = arrivalInfoText;
+    }
+
+    /**
+     * Строит строки из элементов расписания. Форматы берутся из ресурсов один раз.
+     * Потокобезопасный.
+     */
+    public static final class Factory {
+
+        @NonNull
+        private final String trainIdFormat;
+        @NonNull
+        private final String trainIdNameFormat;
+        @NonNull
+        private final String routeDescriptionFormat;
+        @NonNull
+        private final String departureFormat;
+        @NonNull
+        private final String arrivalFormat;
+        @NonNull
+        private final String departureDateFormat;
+
+        public Factory(@NonNull Context context) {
+            trainIdFormat = context.getString(R.string.train_id_format);
+            trainIdNameFormat = context.getString(R.string.train_id_name_format);
+            routeDescriptionFormat = context.getString(R.string.route_descr_format);
+            departureFormat = context.getString(R.string.departure_format);
+            arrivalFormat = context.getString(R.string.arrival_format);
+            departureDateFormat = context.getString(R.string.departure_date_format);
+        }
+
+        @WorkerThread
+        @NonNull
+        public TimetableRow create(@NonNull TimetableEntry entry) {
+            return create(entry, null);
+        }
+
+        /**
+         * @param dayText дата отправления для показа или null, если все строки списка
+         *                относятся к одному дню и дату показывать не нужно.
+         */
+        @WorkerThread
+        @NonNull
+        public TimetableRow create(@NonNull TimetableEntry entry, @Nullable String dayText) {
+            final String departureTime = formatMskTime(entry.departureTimeMinutes);
+            final String trainIdText = entry.trainName == null
+                    ? String.format(trainIdFormat, entry.trainRouteId)
+                    : String.format(trainIdNameFormat, entry.trainRouteId, entry.trainName);
+            return new TimetableRow(entry,
+                    trainIdText,
+                    String.format(routeDescriptionFormat,
+                            entry.routeStartStationName, entry.routeEndStationName),
+                    dayText == null
+                            ? String.format(departureFormat, entry.departureStationName,
+                                    departureTime)
+                            : String.format(departureDateFormat, entry.departureStationName,
+                                    dayText, departureTime),
+                    String.format(arrivalFormat, entry.arrivalStationName,
+                            formatMskTime(entry.arrivalTimeMinutes)));
+        }
+
+        @WorkerThread
+        @NonNull
+        public List<TimetableRow> create(@NonNull List<TimetableEntry> entries) {
+            return create(entries, null);
+        }
+
+        /**
+         * @param dayText см. {@link #create(TimetableEntry, String)}.
+         */
+        @WorkerThread
+        @NonNull
+        public List<TimetableRow> create(@NonNull List<TimetableEntry> entries,
+                                         @Nullable String dayText) {
+            final List<TimetableRow> rows = new ArrayList<>(entries.size());
+            for (TimetableEntry entry : entries) {
+                rows.add(create(entry, dayText));
+            }
+            return rows;
+        }
+
+        /**
+         * @return время по МСК в формате HH:mm, без создания {@link java.util.Calendar}.
+         */
+        @NonNull
+        private static String formatMskTime(int timeMinutes) {
+            final int minuteOfDay =
+                    TimeUtils.getMskMinuteOfDay(timeMinutes * TimeUtils.MINUTE_MILLIS);
+            final int hours = minuteOfDay / 60;
+            final int minutes = minuteOfDay % 60;
+            return new String(new char[] {
+                    (char) ('0' + hours / 10), (char) ('0' + hours % 10), ':',
+                    (char) ('0' + minutes / 10), (char) ('0' + minutes % 10)});
+        }
+    }
+}
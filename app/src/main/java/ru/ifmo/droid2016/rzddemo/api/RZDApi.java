@@ -15,10 +15,12 @@ import java.net.HttpCookie;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 import java.util.Map;
 
+import ru.ifmo.droid2016.rzddemo.BuildConfig;
 import ru.ifmo.droid2016.rzddemo.utils.IOUtils;
 
 import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
@@ -31,32 +33,80 @@ public final class RZDApi {
 
     private static final CookieManager rzdCookieManager = new CookieManager();
 
+    /**
+     * Защищает составные операции с cookie.
+     */
+    private static final Object cookiesLock = new Object();
+
+    private static final SessionGate sessionGate = new SessionGate(new SessionGate.Session() {
+        @Override
+        public boolean hasSession() {
+            return RZDApi.hasSession();
+        }
+
+        @Override
+        public void requestSession()
+                throws IOException, BadResponseException, InterruptedException {
+            executeRequest(createSessionRequest(), ApiResponseParser.NULL_PARSER);
+        }
+    });
+
+    /**
+     * Минимальный интервал между началами запросов к одному хосту, общий для всех загрузчиков.
+     */
+    private static final long MIN_REQUEST_INTERVAL_MILLIS = 250;
+
+    private static final RequestPacer requestPacer =
+            new RequestPacer(MIN_REQUEST_INTERVAL_MILLIS);
+
+    /**
+     * Базовый URL всех запросов к API: по умолчанию настоящий сервис, для замеров --
+     * подменный сервер (задается при сборке, см. RZD_BASE_URL в build.gradle).
+     */
+    private static final String baseUrl = BuildConfig.RZD_BASE_URL;
+
 
     public static boolean hasSession() {
-        final List<HttpCookie> cookies =
-                rzdCookieManager.getCookieStore().getCookies();
-        if (cookies != null) {
-            for (HttpCookie cookie : cookies) {
-                if ("JSESSIONID".equals(cookie.getName())) {
-                    if (!cookie.hasExpired()) {
-                        return true;
-                    } else {
-                        rzdCookieManager.getCookieStore().removeAll();
-                        return false;
+        synchronized (cookiesLock) {
+            final CookieStore cookieStore = rzdCookieManager.getCookieStore();
+            final List<HttpCookie> cookies = cookieStore.getCookies();
+            if (cookies != null) {
+                for (HttpCookie cookie : cookies) {
+                    if ("JSESSIONID".equals(cookie.getName())) {
+                        if (!cookie.hasExpired()) {
+                            return true;
+                        }
+                        // Удаляем только просроченную cookie: остальные могут быть свежими
+                        cookieStore.remove(null, cookie);
                     }
                 }
             }
+            return false;
         }
-        return false;
     }
 
+    /**
+     * Проверяет, что сессия есть, и при необходимости выполняет запрос сессии.
+     *
+     * Запрос сессии выполняется одним потоком, см. {@link SessionGate}.
+     */
+    public static void ensureSession()
+            throws IOException, BadResponseException, InterruptedException {
+        sessionGate.ensureSession();
+    }
+
+    /**
+     * Выполняет запрос, предварительно подождав, если запросов к тому же хосту слишком много
+     * (см. {@link RequestPacer}).
+     */
     public static <T> T executeRequest(HttpURLConnection request, ApiResponseParser<T> parser)
-            throws IOException, BadResponseException {
+            throws IOException, BadResponseException, InterruptedException {
         final StethoURLConnectionManager stethoManager = new StethoURLConnectionManager("API");
 
         InputStream in = null;
 
         try {
+            requestPacer.await(request.getURL().getHost());
             Log.d(TAG, "Performing request: " + request.getURL());
 
             stethoManager.preConnect(request, null);
@@ -92,7 +142,7 @@ public final class RZDApi {
     }
 
     public static HttpURLConnection createSessionRequest() throws IOException {
-        Uri uri = Uri.parse("https://pass.rzd.ru/timetable/public/ru").buildUpon()
+        Uri uri = Uri.parse(baseUrl).buildUpon()
                 .appendQueryParameter("STRUCTURE_ID", "735")
                 .appendQueryParameter("referer", "1")
                 .appendQueryParameter("refererPageId", "704")
@@ -132,6 +182,41 @@ public final class RZDApi {
         return connection;
     }
 
+    /**
+     * Запрос RID для расписания туда и обратно: в ответе на запрос расписания будут поезда
+     * туда на dateThere и обратно на dateBack, см. {@link RoundTripTimetableParser}.
+     */
+    public static HttpURLConnection createRoundTripRouteRequest(String fromStation,
+                                                                String fromCode,
+                                                                String toStation,
+                                                                String toCode,
+                                                                Calendar dateThere,
+                                                                Calendar dateBack)
+            throws IOException, URISyntaxException {
+        Uri uri = createRouteUri(fromStation, fromCode, toStation, toCode, dateThere, dateBack,
+                DIR_ROUND_TRIP).build();
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+        setCommonHeaders(connection);
+        return connection;
+    }
+
+    public static HttpURLConnection createRoundTripTimetableRequest(String fromStation,
+                                                                    String fromCode,
+                                                                    String toStation,
+                                                                    String toCode,
+                                                                    Calendar dateThere,
+                                                                    Calendar dateBack,
+                                                                    String routeId)
+            throws IOException, URISyntaxException {
+        Uri uri = createRouteUri(fromStation, fromCode, toStation, toCode, dateThere, dateBack,
+                DIR_ROUND_TRIP)
+                .appendQueryParameter("rid", routeId)
+                .build();
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri.toString()).openConnection();
+        setCommonHeaders(connection);
+        return connection;
+    }
+
     private static void setCommonHeaders(HttpURLConnection request) {
         request.setRequestProperty("Accept", "application/json, text/javascript, */*");
         request.setRequestProperty("Accept-Language", "ru-RU,ru");
@@ -145,10 +230,21 @@ public final class RZDApi {
                                               String toCode,
                                               Calendar dateFrom,
                                               Calendar dateTo) {
-        return Uri.parse("https://pass.rzd.ru/timetable/public/ru").buildUpon()
+        return createRouteUri(fromStation, fromCode, toStation, toCode, dateFrom, dateTo,
+                DIR_ONE_WAY);
+    }
+
+    private static Uri.Builder createRouteUri(String fromStation,
+                                              String fromCode,
+                                              String toStation,
+                                              String toCode,
+                                              Calendar dateFrom,
+                                              Calendar dateTo,
+                                              String dir) {
+        return Uri.parse(baseUrl).buildUpon()
                 .appendQueryParameter("STRUCTURE_ID", "735")
                 .appendQueryParameter("layer_id", "5371")
-                .appendQueryParameter("dir", "0")
+                .appendQueryParameter("dir", dir)
                 .appendQueryParameter("tfl", "3")
                 .appendQueryParameter("checkSeats", "0")
                 .appendQueryParameter("st0", fromStation)
@@ -160,7 +256,10 @@ public final class RZDApi {
     }
 
     private static void setCookies(HttpURLConnection request) {
-        final List<HttpCookie> cookies = rzdCookieManager.getCookieStore().getCookies();
+        final List<HttpCookie> cookies;
+        synchronized (cookiesLock) {
+            cookies = rzdCookieManager.getCookieStore().getCookies();
+        }
         if (cookies != null && cookies.size() > 0) {
             final String cookiesValue = TextUtils.join(";", cookies);
             request.setRequestProperty("Cookie", cookiesValue);
@@ -176,19 +275,27 @@ public final class RZDApi {
     public static void handleCookies(HttpURLConnection response) {
         final Map<String, List<String>> headerFields = response.getHeaderFields();
         final List<String> cookiesHeader = headerFields.get("Set-Cookie");
-        final CookieStore cookieStore = rzdCookieManager.getCookieStore();
+        if (cookiesHeader == null) {
+            return;
+        }
 
-        if (cookiesHeader != null) {
-            for (String cookieValue : cookiesHeader) {
-                final List<HttpCookie> cookies = HttpCookie.parse(cookieValue);
-                for (HttpCookie cookie : cookies) {
-                    cookieStore.add(null, cookie);
-                }
+        final List<HttpCookie> cookies = new ArrayList<>();
+        for (String cookieValue : cookiesHeader) {
+            cookies.addAll(HttpCookie.parse(cookieValue));
+        }
+        // Все cookie одного ответа становятся видны одновременно
+        synchronized (cookiesLock) {
+            final CookieStore cookieStore = rzdCookieManager.getCookieStore();
+            for (HttpCookie cookie : cookies) {
+                cookieStore.add(null, cookie);
             }
         }
     }
 
     private static final String dateFormat = "dd.MM.yyyy";
 
+    private static final String DIR_ONE_WAY = "0";
+    private static final String DIR_ROUND_TRIP = "1";
+
     private RZDApi() {}
 }
@@ -0,0 +1,36 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Сколько места занимает в БД кэша один маршрут: число сохраненных дней и суммарный размер
+ * их данных.
+ */
+public final class RouteCacheStats {
+
+    @NonNull
+    public final String fromStationId;
+    @NonNull
+    public final String toStationId;
+    public final int days;
+    public final long bytes;
+
+    RouteCacheStats(@NonNull String fromStationId,
+                    @NonNull String toStationId,
+                    int days,
+                    long bytes) {
+        this.fromStationId = fromStationId;
+        this.toStationId = toStationId;
+        this.days = days;
+        this.bytes = bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "RouteCacheStats(fromStationId=" + fromStationId
+                + ", toStationId=" + toStationId
+                + ", days=" + days
+                + ", bytes=" + bytes
+                + ")";
+    }
+}
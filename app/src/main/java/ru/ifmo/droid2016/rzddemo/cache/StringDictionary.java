@@ -0,0 +1,268 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Общий словарь строк для {@link TimetableBlobCodec}, хранящийся в таблице
+ * {@link TimetableContract#STRINGS_TABLE} и закэшированный в памяти.
+ *
+ * Строки добавляются только внутри транзакции записи ({@link #beginWrite}) и попадают в кэш
+ * в памяти только после ее успешного завершения: иначе после отката в памяти остались бы
+ * индексы, которых нет в БД. Записи сериализованы, чтение может идти параллельно.
+ *
+ * Строки, на которые больше не ссылается ни одно расписание, удаляются
+ * ({@link #deleteUnused}). Чтобы удаленный индекс не вернулся в кэш в памяти, каждое
+ * удаление увеличивает {@link #generation}, и результаты чтений и записей, начатых до
+ * удаления, в кэш не попадают.
+ */
+final class StringDictionary {
+
+    /**
+     * Сколько индексов передавать в одном запросе IN (...): в SQLite не больше 999 параметров.
+     */
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    // Только строки из завершенных транзакций, доступ под this
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<Integer, String> values = new HashMap<>();
+
+    // Доступ под this
+    private int generation;
+
+    /**
+     * Начинает добавление строк в рамках текущей транзакции записи в БД.
+     * Вызывающий код должен завершить его вызовом {@link Write#commit} или {@link Write#abort}.
+     *
+     * @param select {@link TimetableContract#SELECT_STRING_ID}
+     * @param insert {@link TimetableContract#INSERT_STRING}
+     */
+    @WorkerThread
+    @NonNull
+    Write beginWrite(@NonNull SQLiteStatement select, @NonNull SQLiteStatement insert) {
+        return new Write(select, insert);
+    }
+
+    /**
+     * Возвращает строки с указанными индексами (см. {@link TimetableBlobCodec#readStringIds}):
+     * из кэша в памяти, а отсутствующие в нем -- одним запросом к БД на каждые
+     * {@link #MAX_IDS_PER_QUERY} индексов.
+     */
+    @WorkerThread
+    @NonNull
+    TimetableBlobCodec.StringValues getValues(@NonNull SQLiteDatabase db,
+                                              @NonNull Collection<Integer> requiredIds) {
+        final Map<Integer, String> found = new HashMap<>(requiredIds.size() * 2);
+        final List<Integer> missing = new ArrayList<>();
+        final int startGeneration;
+        synchronized (this) {
+            startGeneration = generation;
+            for (Integer id : requiredIds) {
+                final String value = values.get(id);
+                if (value != null) {
+                    found.put(id, value);
+                } else {
+                    missing.add(id);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return new Values(found);
+        }
+
+        final Map<Integer, String> loaded = new HashMap<>(missing.size() * 2);
+        for (int start = 0; start < missing.size(); start += MAX_IDS_PER_QUERY) {
+            final List<Integer> chunk =
+                    missing.subList(start, Math.min(missing.size(), start + MAX_IDS_PER_QUERY));
+            final Cursor cursor = db.rawQuery(TimetableContract.selectStringsSql(chunk.size()),
+                    toArgs(chunk));
+            try {
+                while (cursor.moveToNext()) {
+                    loaded.put(cursor.getInt(0), cursor.getString(1));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        found.putAll(loaded);
+        synchronized (this) {
+            if (generation == startGeneration) {
+                for (Map.Entry<Integer, String> entry : loaded.entrySet()) {
+                    ids.put(entry.getValue(), entry.getKey());
+                    values.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return new Values(found);
+    }
+
+    /**
+     * Удаляет из словаря все строки, кроме usedIds. Вызывается внутри транзакции записи,
+     * причем usedIds должны включать строки всех записей, завершенных до ее начала, -- тогда
+     * ни одно расписание не сошлется на удаленную строку.
+     *
+     * @param delete {@link TimetableContract#DELETE_STRING}
+     * @return сколько строк удалено.
+     */
+    @WorkerThread
+    int deleteUnused(@NonNull SQLiteDatabase db,
+                     @NonNull SQLiteStatement delete,
+                     @NonNull Set<Integer> usedIds) {
+        final List<Integer> unused = new ArrayList<>();
+        final Cursor cursor = db.rawQuery(TimetableContract.SELECT_STRING_IDS, null);
+        try {
+            while (cursor.moveToNext()) {
+                final int id = cursor.getInt(0);
+                if (!usedIds.contains(id)) {
+                    unused.add(id);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        if (unused.isEmpty()) {
+            return 0;
+        }
+
+        for (Integer id : unused) {
+            delete.bindLong(1, id);
+            delete.executeUpdateDelete();
+        }
+        synchronized (this) {
+            generation++;
+            for (Integer id : unused) {
+                final String value = values.remove(id);
+                if (value != null) {
+                    ids.remove(value);
+                }
+            }
+        }
+        return unused.size();
+    }
+
+    /**
+     * Удаляет из словаря все строки. Вызывается внутри транзакции, удаляющей все расписания.
+     */
+    @WorkerThread
+    void deleteAll(@NonNull SQLiteDatabase db) {
+        db.execSQL(TimetableContract.DELETE_ALL_STRINGS);
+        synchronized (this) {
+            generation++;
+            ids.clear();
+            values.clear();
+        }
+    }
+
+    private synchronized Integer committedId(@NonNull String value) {
+        return ids.get(value);
+    }
+
+    /**
+     * Строки, нужные для чтения одного расписания.
+     */
+    private static final class Values implements TimetableBlobCodec.StringValues {
+
+        @NonNull
+        private final Map<Integer, String> values;
+
+        Values(@NonNull Map<Integer, String> values) {
+            this.values = values;
+        }
+
+        @NonNull
+        @Override
+        public String valueOf(int id) throws TimetableBlobCodec.BadBlobException {
+            final String value = values.get(id);
+            if (value == null) {
+                throw new TimetableBlobCodec.BadBlobException("No string with id=" + id);
+            }
+            return value;
+        }
+    }
+
+    @NonNull
+    private static String[] toArgs(@NonNull List<Integer> ids) {
+        final String[] args = new String[ids.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(ids.get(i));
+        }
+        return args;
+    }
+
+    final class Write implements TimetableBlobCodec.StringIds {
+
+        @NonNull
+        private final SQLiteStatement select;
+        @NonNull
+        private final SQLiteStatement insert;
+
+        private final int startGeneration;
+
+        private final Map<String, Integer> added = new HashMap<>();
+
+        private Write(@NonNull SQLiteStatement select, @NonNull SQLiteStatement insert) {
+            this.select = select;
+            this.insert = insert;
+            synchronized (StringDictionary.this) {
+                startGeneration = generation;
+            }
+        }
+
+        @Override
+        public int idOf(@NonNull String value) {
+            Integer id = committedId(value);
+            if (id == null) {
+                id = added.get(value);
+            }
+            if (id == null) {
+                id = (int) findOrInsert(value);
+                added.put(value, id);
+            }
+            return id;
+        }
+
+        private long findOrInsert(@NonNull String value) {
+            select.bindString(1, value);
+            try {
+                return select.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                insert.bindString(1, value);
+                return insert.executeInsert();
+            }
+        }
+
+        /**
+         * Вызывается после успешного завершения транзакции.
+         */
+        void commit() {
+            synchronized (StringDictionary.this) {
+                // Строки могли удалить сразу после завершения транзакции
+                if (generation != startGeneration) {
+                    added.clear();
+                }
+                for (Map.Entry<String, Integer> entry : added.entrySet()) {
+                    ids.put(entry.getKey(), entry.getValue());
+                    values.put(entry.getValue(), entry.getKey());
+                }
+            }
+        }
+
+        /**
+         * Вызывается, если транзакция не была завершена успешно.
+         */
+        void abort() {
+            added.clear();
+        }
+    }
+}
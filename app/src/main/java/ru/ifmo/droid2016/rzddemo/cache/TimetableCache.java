@@ -3,14 +3,16 @@ package ru.ifmo.droid2016.rzddemo.cache;
 import android.content.Context;
 import android.support.annotation.AnyThread;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 
 import java.io.FileNotFoundException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
 import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
 
 import static ru.ifmo.droid2016.rzddemo.Constants.LOG_DATE_FORMAT;
 
@@ -34,6 +36,18 @@ public class TimetableCache {
     @DataSchemeVersion
     private final int version;
 
+    @NonNull
+    private final TimetableDbStore dbStore;
+
+    @NonNull
+    private final TimetableMemoryCache memoryCache = TimetableMemoryCache.getInstance();
+
+    @NonNull
+    private final TimetableWriter writer;
+
+    @NonNull
+    private final TimetableCacheStats stats = TimetableCacheStats.getInstance();
+
     /**
      * Создает экземпляр кэша с указанной версией модели данных.
      *
@@ -45,6 +59,8 @@ public class TimetableCache {
                           @DataSchemeVersion int version) {
         this.context = context.getApplicationContext();
         this.version = version;
+        dbStore = TimetableDbStore.getInstance(context, version);
+        writer = TimetableWriter.getInstance();
     }
 
     /**
@@ -57,7 +73,8 @@ public class TimetableCache {
      *
      * @return - список {@link TimetableEntry}
      *
-     * @throws FileNotFoundException - если в кэше отсуствуют запрашиваемые данные.
+     * @throws FileNotFoundException - если в кэше отсуствуют запрашиваемые данные (или срок их
+     *                               жизни истек, см. {@link #getCached}).
      */
     @WorkerThread
     @NonNull
@@ -65,17 +82,176 @@ public class TimetableCache {
                                     @NonNull String toStationId,
                                     @NonNull Calendar dateMsk)
             throws FileNotFoundException {
-        // TODO: ДЗ - реализовать кэш на основе базы данных SQLite с учетом версии модели данных
+        final CachedTimetable cached = getCached(fromStationId, toStationId, dateMsk);
+        if (cached != null) {
+            return cached.timetable;
+        }
         throw new FileNotFoundException("No data in timetable cache for: fromStationId="
                 + fromStationId + ", toStationId=" + toStationId
                 + ", dateMsk=" + LOG_DATE_FORMAT.format(dateMsk.getTime()));
     }
 
+    /**
+     * То же, что {@link #get}, но вместе со временем записи в кэш.
+     *
+     * Расписание, срок жизни которого истек (см. {@link TimetableCachePolicy}), не отдается.
+     *
+     * @return расписание или null, если в кэше его нет.
+     */
+    @WorkerThread
+    @Nullable
+    public CachedTimetable getCached(@NonNull String fromStationId,
+                                     @NonNull String toStationId,
+                                     @NonNull Calendar dateMsk) {
+        final RouteDayKey key = new RouteDayKey(fromStationId, toStationId, dateMsk);
+        CachedTimetable cached = memoryCache.get(key);
+        if (cached == null) {
+            // Вытесненное из памяти, но еще не записанное в БД
+            final CachedTimetable pending = writer.get(key);
+            if (pending != null) {
+                cached = memoryCache.putIfNewer(key, pending.timetable, pending.updatedAtMillis);
+            }
+        }
+        final boolean inMemory = cached != null;
+        if (cached == null) {
+            final CachedTimetable stored = dbStore.get(key);
+            if (stored == null) {
+                stats.onMiss();
+                return null;
+            }
+            // Пока читали из БД, в кэш могли записать более свежие данные
+            cached = memoryCache.putIfNewer(key, stored.timetable, stored.updatedAtMillis);
+        }
+
+        final int today = TimeUtils.getMskDay(
+                TimeUtils.getCurrentTime(TimeUtils.getMskTimeZone()));
+        if (TimetableCachePolicy.isExpired(key.dayMsk, today, cached.updatedAtMillis,
+                System.currentTimeMillis())) {
+            memoryCache.remove(key);
+            stats.onExpired();
+            return null;
+        }
+        if (inMemory) {
+            stats.onMemoryHit();
+        } else {
+            stats.onDbHit();
+        }
+        dbStore.recordAccess(key);
+        return cached;
+    }
+
+    /**
+     * Записывает в кэш расписание на указанную дату, заменяя ранее сохраненное.
+     * Пустое расписание тоже сохраняется -- как признак того, что поездов в этот день нет.
+     *
+     * Расписание сразу попадает в кэш в памяти и доступно для чтения, а в БД записывается
+     * позже в фоне (см. {@link TimetableWriter}). Если очередь записи переполнена, ждет ее
+     * разгрузки.
+     */
     @WorkerThread
     public void put(@NonNull String fromStationId,
                     @NonNull String toStationId,
                     @NonNull Calendar dateMsk,
                     @NonNull List<TimetableEntry> timetable) {
-        // TODO: ДЗ - реализовать кэш на основе базы данных SQLite с учетом версии модели данных
+        final RouteDayKey key = new RouteDayKey(fromStationId, toStationId, dateMsk);
+        final long now = System.currentTimeMillis();
+        final CachedTimetable cached = memoryCache.put(key,
+                version == DataSchemeVersion.V1 ? withoutTrainNames(timetable) : timetable, now);
+        writer.put(key, cached);
+        stats.onWrite();
+    }
+
+    /**
+     * @return число дней и размер данных в БД по каждому маршруту, начиная с самых больших.
+     */
+    @WorkerThread
+    @NonNull
+    public List<RouteCacheStats> getRouteStats() {
+        return dbStore.getRouteStats();
+    }
+
+    /**
+     * @return суммарный размер данных расписаний в БД вместе со словарем строк.
+     */
+    @WorkerThread
+    public long getDbSizeBytes() {
+        return dbStore.getTotalSizeBytes();
+    }
+
+    @AnyThread
+    public int getMemoryEntryCount() {
+        return memoryCache.getEntryCount();
+    }
+
+    /**
+     * @return примерный объем памяти, занимаемый кэшем в памяти.
+     */
+    @AnyThread
+    public long getMemorySizeBytes() {
+        return memoryCache.getSizeBytes();
+    }
+
+    /**
+     * @return сколько маршрутов-дней ждет записи в БД.
+     */
+    @AnyThread
+    public int getPendingWriteCount() {
+        return writer.getPendingCount();
+    }
+
+    /**
+     * Записывает в БД все расписания, ожидающие записи, в текущем потоке.
+     */
+    @WorkerThread
+    public void flush() {
+        writer.flush();
+    }
+
+    /**
+     * Просит записать в БД ожидающие расписания как можно скорее, не дожидаясь записи.
+     * Ничего не делает, если кэш еще не открывался.
+     */
+    @AnyThread
+    public static void requestFlush() {
+        if (TimetableDbStore.peekInstance() != null) {
+            TimetableWriter.getInstance().requestFlush();
+        }
+    }
+
+    /**
+     * Удаляет из кэша все расписания -- и из БД, и из памяти, и из очереди записи.
+     *
+     * @return сколько маршрутов-дней было в БД.
+     */
+    @WorkerThread
+    public int clear() {
+        writer.discardPending();
+        final int deleted = dbStore.deleteAll();
+        memoryCache.clear();
+        return deleted;
+    }
+
+    /**
+     * @return версия модели данных, с которой в этом процессе открыт кэш, или -1, если
+     * кэш еще не открывался. Версию нельзя поменять, пока работает процесс, поэтому
+     * диагностика не должна открывать кэш сама.
+     */
+    @AnyThread
+    public static int getOpenedVersion() {
+        final TimetableDbStore store = TimetableDbStore.peekInstance();
+        return store == null ? -1 : store.dbHelper.version;
+    }
+
+    /**
+     * В версии V1 название поезда не хранится -- кэш в памяти должен отдавать те же данные,
+     * что прочитались бы из БД.
+     */
+    @NonNull
+    private static List<TimetableEntry> withoutTrainNames(@NonNull List<TimetableEntry> timetable) {
+        final List<TimetableEntry> result = new ArrayList<>(timetable.size());
+        for (TimetableEntry entry : timetable) {
+            result.add(entry.withoutTrainName());
+        }
+        return result;
     }
 }
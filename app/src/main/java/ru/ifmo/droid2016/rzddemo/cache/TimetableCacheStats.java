@@ -0,0 +1,134 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счетчики обращений к кэшу расписаний и его очистки с момента запуска процесса
+ * (или последнего {@link #reset}).
+ *
+ * Один экземпляр на процесс, потокобезопасный.
+ */
+public final class TimetableCacheStats {
+
+    private static final TimetableCacheStats instance = new TimetableCacheStats();
+
+    @AnyThread
+    @NonNull
+    public static TimetableCacheStats getInstance() {
+        return instance;
+    }
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong dbHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong purged = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    private TimetableCacheStats() {}
+
+    /**
+     * @return сколько раз расписание нашлось в кэше в памяти.
+     */
+    @AnyThread
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    /**
+     * @return сколько раз расписание прочиталось из БД.
+     */
+    @AnyThread
+    public long getDbHits() {
+        return dbHits.get();
+    }
+
+    /**
+     * @return сколько раз расписания не было в кэше.
+     */
+    @AnyThread
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return сколько раз расписание нашлось, но не было отдано: истек срок жизни.
+     * Такие обращения не входят в {@link #getMemoryHits} и {@link #getDbHits}.
+     */
+    @AnyThread
+    public long getExpired() {
+        return expired.get();
+    }
+
+    /**
+     * @return доля обращений, для которых расписание было отдано из кэша, или NaN, если
+     * обращений не было.
+     */
+    @AnyThread
+    public double getHitRatio() {
+        final long hits = getMemoryHits() + getDbHits();
+        final long total = hits + getMisses() + getExpired();
+        return total == 0 ? Double.NaN : (double) hits / total;
+    }
+
+    @AnyThread
+    public long getWrites() {
+        return writes.get();
+    }
+
+    /**
+     * @return сколько маршрутов-дней удалено из БД как прошедшие.
+     */
+    @AnyThread
+    public long getPurged() {
+        return purged.get();
+    }
+
+    /**
+     * @return сколько маршрутов-дней вытеснено из БД из-за превышения размера.
+     */
+    @AnyThread
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    @AnyThread
+    public void reset() {
+        memoryHits.set(0);
+        dbHits.set(0);
+        misses.set(0);
+        expired.set(0);
+        writes.set(0);
+        purged.set(0);
+        evicted.set(0);
+    }
+
+    void onMemoryHit() {
+        memoryHits.incrementAndGet();
+    }
+
+    void onDbHit() {
+        dbHits.incrementAndGet();
+    }
+
+    void onMiss() {
+        misses.incrementAndGet();
+    }
+
+    void onExpired() {
+        expired.incrementAndGet();
+    }
+
+    void onWrite() {
+        writes.incrementAndGet();
+    }
+
+    void onCleanup(int purgedRouteDays, int evictedRouteDays) {
+        purged.addAndGet(purgedRouteDays);
+        evicted.addAndGet(evictedRouteDays);
+    }
+}
@@ -0,0 +1,160 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+/**
+ * Описание таблиц кэша расписаний: имена колонок и SQL выражения.
+ *
+ * Расписание маршрута-дня хранится одной строкой таблицы {@link #DAYS_TABLE} в формате
+ * {@link TimetableBlobCodec}, строки для него -- в общем словаре {@link #STRINGS_TABLE}.
+ */
+final class TimetableContract {
+
+    static final String DAYS_TABLE = "timetable_days";
+
+    static final String STRINGS_TABLE = "timetable_strings";
+
+    /**
+     * Колонки таблицы {@link #DAYS_TABLE}. Первичный ключ -- маршрут-день.
+     */
+    interface DayColumns {
+        String DEPARTURE_STATION_ID = "departure_station_id";
+        String ARRIVAL_STATION_ID = "arrival_station_id";
+        /**
+         * Дата отправления -- порядковый номер дня в московском часовом поясе,
+         * см. {@link ru.ifmo.droid2016.rzddemo.utils.TimeUtils#getMskDay}.
+         */
+        String DAY_MSK = "day_msk";
+        /**
+         * Расписание в формате {@link TimetableBlobCodec}.
+         */
+        String DATA = "data";
+        /**
+         * Время записи, System.currentTimeMillis().
+         */
+        String UPDATED_AT = "updated_at";
+        /**
+         * Время последнего чтения, System.currentTimeMillis(), 0 -- не читалось с момента
+         * записи. Обновляется не при каждом чтении, а порциями (см. {@link TimetableEvictor}).
+         */
+        String ACCESSED_AT = "accessed_at";
+    }
+
+    /**
+     * Колонки таблицы {@link #STRINGS_TABLE}.
+     */
+    interface StringColumns {
+        String ID = "_id";
+        String VALUE = "value";
+    }
+
+    static final String CREATE_DAYS_TABLE = "CREATE TABLE IF NOT EXISTS " + DAYS_TABLE + " ("
+            + DayColumns.DEPARTURE_STATION_ID + " TEXT NOT NULL, "
+            + DayColumns.ARRIVAL_STATION_ID + " TEXT NOT NULL, "
+            + DayColumns.DAY_MSK + " INTEGER NOT NULL, "
+            + DayColumns.DATA + " BLOB NOT NULL, "
+            + DayColumns.UPDATED_AT + " INTEGER NOT NULL DEFAULT 0, "
+            + DayColumns.ACCESSED_AT + " INTEGER NOT NULL DEFAULT 0, "
+            + "PRIMARY KEY (" + DayColumns.DEPARTURE_STATION_ID + ", "
+            + DayColumns.ARRIVAL_STATION_ID + ", " + DayColumns.DAY_MSK + "))";
+
+    static final String CREATE_STRINGS_TABLE = "CREATE TABLE IF NOT EXISTS " + STRINGS_TABLE
+            + " (" + StringColumns.ID + " INTEGER PRIMARY KEY, "
+            + StringColumns.VALUE + " TEXT NOT NULL UNIQUE)";
+
+    static final String SELECT_DAY = "SELECT " + DayColumns.DATA + ", " + DayColumns.UPDATED_AT
+            + " FROM " + DAYS_TABLE
+            + " WHERE " + DayColumns.DEPARTURE_STATION_ID + "=? AND "
+            + DayColumns.ARRIVAL_STATION_ID + "=? AND " + DayColumns.DAY_MSK + "=?";
+
+    static final String REPLACE_DAY = "INSERT OR REPLACE INTO " + DAYS_TABLE + " ("
+            + DayColumns.DEPARTURE_STATION_ID + ", " + DayColumns.ARRIVAL_STATION_ID + ", "
+            + DayColumns.DAY_MSK + ", " + DayColumns.DATA + ", " + DayColumns.UPDATED_AT
+            + ") VALUES (?, ?, ?, ?, ?)";
+
+    static final String UPDATE_ACCESSED_AT = "UPDATE " + DAYS_TABLE
+            + " SET " + DayColumns.ACCESSED_AT + "=?"
+            + " WHERE " + DayColumns.DEPARTURE_STATION_ID + "=? AND "
+            + DayColumns.ARRIVAL_STATION_ID + "=? AND " + DayColumns.DAY_MSK + "=?";
+
+    /**
+     * Удаляет не больше заданного числа маршрутов-дней раньше заданного дня.
+     */
+    static final String DELETE_DAYS_BEFORE = "DELETE FROM " + DAYS_TABLE
+            + " WHERE rowid IN (SELECT rowid FROM " + DAYS_TABLE
+            + " WHERE " + DayColumns.DAY_MSK + "<? LIMIT ?)";
+
+    /**
+     * Размер данных расписаний вместе со словарем строк, в байтах.
+     */
+    static final String SELECT_TOTAL_SIZE = "SELECT"
+            + " (SELECT IFNULL(SUM(LENGTH(" + DayColumns.DATA + ")), 0) FROM " + DAYS_TABLE
+            + ") + (SELECT IFNULL(SUM(LENGTH(CAST(" + StringColumns.VALUE + " AS BLOB))), 0)"
+            + " FROM " + STRINGS_TABLE + ")";
+
+    /**
+     * Маршруты-дни в порядке последнего использования (чтения или записи), начиная с давних.
+     */
+    static final String SELECT_LEAST_RECENTLY_USED = "SELECT "
+            + DayColumns.DEPARTURE_STATION_ID + ", " + DayColumns.ARRIVAL_STATION_ID + ", "
+            + DayColumns.DAY_MSK + " FROM " + DAYS_TABLE
+            + " ORDER BY MAX(" + DayColumns.ACCESSED_AT + ", " + DayColumns.UPDATED_AT + ")"
+            + " LIMIT ?";
+
+    static final String DELETE_DAY = "DELETE FROM " + DAYS_TABLE
+            + " WHERE " + DayColumns.DEPARTURE_STATION_ID + "=? AND "
+            + DayColumns.ARRIVAL_STATION_ID + "=? AND " + DayColumns.DAY_MSK + "=?";
+
+    /**
+     * Число маршрутов-дней и суммарный размер данных по каждому маршруту, начиная с самых
+     * больших.
+     */
+    static final String SELECT_ROUTE_STATS = "SELECT "
+            + DayColumns.DEPARTURE_STATION_ID + ", " + DayColumns.ARRIVAL_STATION_ID + ", "
+            + "COUNT(*), IFNULL(SUM(LENGTH(" + DayColumns.DATA + ")), 0) AS bytes"
+            + " FROM " + DAYS_TABLE
+            + " GROUP BY " + DayColumns.DEPARTURE_STATION_ID + ", "
+            + DayColumns.ARRIVAL_STATION_ID
+            + " ORDER BY bytes DESC";
+
+    static final String DELETE_ALL_DAYS = "DELETE FROM " + DAYS_TABLE;
+
+    /**
+     * Порция данных расписаний с rowid больше заданного, в порядке rowid. Так чтение всех
+     * расписаний порциями не пропускает строки, даже если между порциями часть удалили.
+     */
+    static final String SELECT_DATA_AFTER = "SELECT rowid, " + DayColumns.DATA
+            + " FROM " + DAYS_TABLE + " WHERE rowid>? ORDER BY rowid LIMIT ?";
+
+    static final String SELECT_DAY_COUNT = "SELECT COUNT(*) FROM " + DAYS_TABLE;
+
+    static final String SELECT_STRING_COUNT = "SELECT COUNT(*) FROM " + STRINGS_TABLE;
+
+    static final String SELECT_STRING_IDS = "SELECT " + StringColumns.ID
+            + " FROM " + STRINGS_TABLE;
+
+    static final String SELECT_STRING_ID = "SELECT " + StringColumns.ID
+            + " FROM " + STRINGS_TABLE + " WHERE " + StringColumns.VALUE + "=?";
+
+    static final String INSERT_STRING = "INSERT INTO " + STRINGS_TABLE
+            + " (" + StringColumns.VALUE + ") VALUES (?)";
+
+    static final String DELETE_STRING = "DELETE FROM " + STRINGS_TABLE
+            + " WHERE " + StringColumns.ID + "=?";
+
+    static final String DELETE_ALL_STRINGS = "DELETE FROM " + STRINGS_TABLE;
+
+    /**
+     * Выбирает строки словаря с count индексами, переданными параметрами запроса.
+     */
+    static String selectStringsSql(int count) {
+        final StringBuilder sql = new StringBuilder("SELECT ")
+                .append(StringColumns.ID).append(", ").append(StringColumns.VALUE)
+                .append(" FROM ").append(STRINGS_TABLE)
+                .append(" WHERE ").append(StringColumns.ID).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    private TimetableContract() {}
+}
@@ -0,0 +1,85 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * База данных кэша расписаний. Версия БД совпадает с версией модели данных
+ * {@link DataSchemeVersion}.
+ *
+ * Создается один раз на процесс и никогда не закрывается -- версия модели данных не меняется,
+ * пока работает процесс приложения.
+ *
+ * Формат хранения, общий для всех версий модели, описан в {@link TimetableContract}, поэтому
+ * при смене версии таблицы не переписываются. Данные без названий поездов, записанные в
+ * версии {@link DataSchemeVersion#V1}, {@link TimetableDbStore} в версии
+ * {@link DataSchemeVersion#V2} отдает как требующие обновления, и загрузчик перезаписывает их.
+ */
+final class TimetableDbHelper extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "timetable.db";
+
+    private static volatile TimetableDbHelper instance;
+
+    @AnyThread
+    @NonNull
+    static TimetableDbHelper getInstance(@NonNull Context context,
+                                         @DataSchemeVersion int version) {
+        TimetableDbHelper helper = instance;
+        if (helper == null) {
+            synchronized (TimetableDbHelper.class) {
+                helper = instance;
+                if (helper == null) {
+                    helper = instance = new TimetableDbHelper(context, version);
+                }
+            }
+        }
+        if (helper.version != version) {
+            throw new IllegalStateException("Data scheme version can't be changed at runtime: "
+                    + helper.version + " -> " + version);
+        }
+        return helper;
+    }
+
+    @DataSchemeVersion
+    final int version;
+
+    private TimetableDbHelper(@NonNull Context context, @DataSchemeVersion int version) {
+        super(context.getApplicationContext(), DB_NAME, null /*factory*/, version);
+        this.version = version;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // Чтение из кэша не должно ждать завершения транзакции записи.
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        Log.d(TAG, "Create timetable cache, version=" + version);
+        createTables(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.d(TAG, "Upgrade timetable cache: " + oldVersion + " -> " + newVersion);
+        createTables(db);
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.d(TAG, "Downgrade timetable cache: " + oldVersion + " -> " + newVersion);
+        createTables(db);
+    }
+
+    private static void createTables(SQLiteDatabase db) {
+        db.execSQL(TimetableContract.CREATE_DAYS_TABLE);
+        db.execSQL(TimetableContract.CREATE_STRINGS_TABLE);
+    }
+}
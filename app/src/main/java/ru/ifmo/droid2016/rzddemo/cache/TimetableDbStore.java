@@ -0,0 +1,485 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Хранение расписаний в SQLite: один маршрут-день -- одна строка с данными в формате
+ * {@link TimetableBlobCodec}.
+ *
+ * Выражения записи компилируются один раз на процесс (см. {@link #statement}). Все записи
+ * идут под {@link #statementsLock}, который берется до начала транзакции: поток внутри
+ * транзакции уже держит соединение с БД и не должен ждать блокировку, которую может держать
+ * поток, ждущий это соединение.
+ *
+ * Один экземпляр на процесс, потокобезопасный.
+ */
+final class TimetableDbStore {
+
+    /**
+     * Сколько маршрутов-дней читать одним запросом при сборке неиспользуемых строк.
+     */
+    private static final int STRING_SCAN_BATCH_ROUTE_DAYS = 64;
+
+    private static volatile TimetableDbStore instance;
+
+    @AnyThread
+    @NonNull
+    static TimetableDbStore getInstance(@NonNull Context context,
+                                        @DataSchemeVersion int version) {
+        TimetableDbStore store = instance;
+        if (store == null) {
+            synchronized (TimetableDbStore.class) {
+                store = instance;
+                if (store == null) {
+                    store = new TimetableDbStore(
+                            TimetableDbHelper.getInstance(context, version));
+                    TimetableEvictor.start(store);
+                    TimetableWriter.start(store);
+                    // Публикуется после запуска фоновых потоков: TimetableCache берет
+                    // TimetableWriter.getInstance() сразу после получения хранилища
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @return хранилище или null, если кэш в этом процессе еще не открывался.
+     */
+    @AnyThread
+    @Nullable
+    static TimetableDbStore peekInstance() {
+        return instance;
+    }
+
+    @NonNull
+    final TimetableDbHelper dbHelper;
+
+    @NonNull
+    private final StringDictionary strings;
+
+    private final boolean withTrainNames;
+
+    /**
+     * Индексы строк, записанных во время {@link #deleteUnusedStrings}, или null, если строки
+     * сейчас не собираются.
+     */
+    // Доступ под statementsLock
+    @Nullable
+    private Set<Integer> writtenStringIds;
+
+    /**
+     * Время последнего чтения маршрутов-дней, еще не записанное в БД.
+     */
+    private final ConcurrentHashMap<RouteDayKey, Long> accessTimes = new ConcurrentHashMap<>();
+
+    private final Object statementsLock = new Object();
+
+    /**
+     * Скомпилированные выражения по тексту SQL. SQLiteStatement хранит привязанные параметры
+     * и не потокобезопасен, поэтому выражения используются только под statementsLock.
+     */
+    // Доступ под statementsLock
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+    private TimetableDbStore(@NonNull TimetableDbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+        this.strings = new StringDictionary();
+        this.withTrainNames = dbHelper.version == DataSchemeVersion.V2;
+    }
+
+    /**
+     * @return расписание или null, если его нет в БД.
+     */
+    @WorkerThread
+    @Nullable
+    CachedTimetable get(@NonNull RouteDayKey key) {
+        return getDay(dbHelper.getReadableDatabase(), key);
+    }
+
+    /**
+     * Записывает расписания нескольких маршрутов-дней одной транзакцией, заменяя ранее
+     * сохраненные.
+     */
+    @WorkerThread
+    void putAll(@NonNull Map<RouteDayKey, CachedTimetable> timetables) {
+        if (timetables.isEmpty()) {
+            return;
+        }
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        synchronized (statementsLock) {
+            db.beginTransaction();
+            final StringDictionary.Write stringsWrite = beginStringsWrite(db);
+            boolean success = false;
+            try {
+                final SQLiteStatement replace = statement(db, TimetableContract.REPLACE_DAY);
+                final TimetableBlobCodec.StringIds stringIds = writtenStringIds == null
+                        ? stringsWrite : new RecordingStringIds(stringsWrite, writtenStringIds);
+                for (Map.Entry<RouteDayKey, CachedTimetable> timetable
+                        : timetables.entrySet()) {
+                    writeDay(replace, timetable.getKey(),
+                            TimetableBlobCodec.encode(timetable.getValue().timetable,
+                                    withTrainNames, stringIds),
+                            timetable.getValue().updatedAtMillis);
+                }
+                db.setTransactionSuccessful();
+                success = true;
+            } finally {
+                db.endTransaction();
+                if (success) {
+                    stringsWrite.commit();
+                } else {
+                    stringsWrite.abort();
+                }
+            }
+        }
+        TimetableEvictor.onWrite(timetables.size());
+    }
+
+    /**
+     * Запоминает время чтения маршрута-дня. В БД оно попадает при {@link #flushAccessTimes}.
+     */
+    @AnyThread
+    void recordAccess(@NonNull RouteDayKey key) {
+        accessTimes.put(key, System.currentTimeMillis());
+    }
+
+    /**
+     * Записывает в БД запомненные времена чтения одной транзакцией.
+     */
+    @WorkerThread
+    void flushAccessTimes() {
+        if (accessTimes.isEmpty()) {
+            return;
+        }
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        synchronized (statementsLock) {
+            db.beginTransaction();
+            try {
+                final SQLiteStatement update =
+                        statement(db, TimetableContract.UPDATE_ACCESSED_AT);
+                for (Map.Entry<RouteDayKey, Long> access : accessTimes.entrySet()) {
+                    final RouteDayKey key = access.getKey();
+                    // Более позднее время, записанное за это время, останется до следующего раза
+                    accessTimes.remove(key, access.getValue());
+                    update.bindLong(1, access.getValue());
+                    update.bindString(2, key.fromStationId);
+                    update.bindString(3, key.toStationId);
+                    update.bindLong(4, key.dayMsk);
+                    update.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Удаляет не больше limit маршрутов-дней раньше дня dayMsk.
+     *
+     * @return сколько удалено.
+     */
+    @WorkerThread
+    int deleteDaysBefore(int dayMsk, int limit) {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        synchronized (statementsLock) {
+            final SQLiteStatement delete = statement(db, TimetableContract.DELETE_DAYS_BEFORE);
+            delete.bindLong(1, dayMsk);
+            delete.bindLong(2, limit);
+            return delete.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * @return суммарный размер данных расписаний в БД вместе со словарем строк.
+     */
+    @WorkerThread
+    long getTotalSizeBytes() {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        synchronized (statementsLock) {
+            return statement(db, TimetableContract.SELECT_TOTAL_SIZE).simpleQueryForLong();
+        }
+    }
+
+    /**
+     * @return число дней и размер данных по каждому маршруту, начиная с самых больших.
+     */
+    @WorkerThread
+    @NonNull
+    List<RouteCacheStats> getRouteStats() {
+        final Cursor cursor = dbHelper.getReadableDatabase()
+                .rawQuery(TimetableContract.SELECT_ROUTE_STATS, null);
+        try {
+            final List<RouteCacheStats> stats = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                stats.add(new RouteCacheStats(cursor.getString(0), cursor.getString(1),
+                        cursor.getInt(2), cursor.getLong(3)));
+            }
+            return stats;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Удаляет все расписания и словарь строк одной транзакцией.
+     *
+     * @return сколько маршрутов-дней удалено.
+     */
+    @WorkerThread
+    int deleteAll() {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        synchronized (statementsLock) {
+            db.beginTransaction();
+            try {
+                final int deleted = statement(db, TimetableContract.DELETE_ALL_DAYS)
+                        .executeUpdateDelete();
+                strings.deleteAll(db);
+                accessTimes.clear();
+                db.setTransactionSuccessful();
+                return deleted;
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Удаляет не больше limit давно не использовавшихся маршрутов-дней.
+     *
+     * @return ключи удаленных маршрутов-дней.
+     */
+    @WorkerThread
+    @NonNull
+    List<RouteDayKey> deleteLeastRecentlyUsed(int limit) {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        synchronized (statementsLock) {
+            db.beginTransaction();
+            try {
+                final List<RouteDayKey> keys = new ArrayList<>(limit);
+                final Cursor cursor = db.rawQuery(
+                        TimetableContract.SELECT_LEAST_RECENTLY_USED,
+                        new String[] {String.valueOf(limit)});
+                try {
+                    while (cursor.moveToNext()) {
+                        keys.add(new RouteDayKey(cursor.getString(0), cursor.getString(1),
+                                cursor.getInt(2)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+
+                final SQLiteStatement delete = statement(db, TimetableContract.DELETE_DAY);
+                for (RouteDayKey key : keys) {
+                    delete.bindString(1, key.fromStationId);
+                    delete.bindString(2, key.toStationId);
+                    delete.bindLong(3, key.dayMsk);
+                    delete.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+                return keys;
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Удаляет из словаря строки, на которые не ссылается ни одно расписание: они остаются
+     * после удаления и перезаписи маршрутов-дней. Для этого читает все расписания, поэтому
+     * {@link TimetableEvictor} вызывает его не чаще раза за проход и только если словарь
+     * заметно вырос.
+     *
+     * Расписания читаются порциями вне транзакции и без statementsLock, чтобы не задерживать
+     * запись. Индексы строк, записанных за это время, запоминает {@link #putAll} -- они тоже
+     * считаются используемыми. Под блокировкой выполняется только само удаление.
+     *
+     * @return сколько строк удалено.
+     */
+    @WorkerThread
+    int deleteUnusedStrings() {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        final Set<Integer> writtenIds = new HashSet<>();
+        synchronized (statementsLock) {
+            writtenStringIds = writtenIds;
+        }
+        try {
+            final Set<Integer> usedIds = readUsedStringIds(db);
+            synchronized (statementsLock) {
+                usedIds.addAll(writtenIds);
+                db.beginTransaction();
+                try {
+                    final int deleted = strings.deleteUnused(db,
+                            statement(db, TimetableContract.DELETE_STRING), usedIds);
+                    db.setTransactionSuccessful();
+                    return deleted;
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            synchronized (statementsLock) {
+                writtenStringIds = null;
+            }
+        }
+    }
+
+    /**
+     * @return число маршрутов-дней в БД.
+     */
+    @WorkerThread
+    long getDayCount() {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        synchronized (statementsLock) {
+            return statement(db, TimetableContract.SELECT_DAY_COUNT).simpleQueryForLong();
+        }
+    }
+
+    /**
+     * @return число строк в словаре, в том числе неиспользуемых.
+     */
+    @WorkerThread
+    long getStringCount() {
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        synchronized (statementsLock) {
+            return statement(db, TimetableContract.SELECT_STRING_COUNT).simpleQueryForLong();
+        }
+    }
+
+    @NonNull
+    private static Set<Integer> readUsedStringIds(@NonNull SQLiteDatabase db) {
+        final Set<Integer> usedIds = new HashSet<>();
+        final String limit = String.valueOf(STRING_SCAN_BATCH_ROUTE_DAYS);
+        long lastRowId = 0;
+        int count;
+        do {
+            count = 0;
+            final Cursor cursor = db.rawQuery(TimetableContract.SELECT_DATA_AFTER,
+                    new String[] {String.valueOf(lastRowId), limit});
+            try {
+                while (cursor.moveToNext()) {
+                    count++;
+                    lastRowId = cursor.getLong(0);
+                    try {
+                        TimetableBlobCodec.readStringIds(cursor.getBlob(1), usedIds);
+                    } catch (TimetableBlobCodec.BadBlobException e) {
+                        // Такое расписание все равно не прочитать
+                        Log.w(TAG, "Corrupted timetable cache entry: " + e);
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } while (count == STRING_SCAN_BATCH_ROUTE_DAYS);
+        return usedIds;
+    }
+
+    @Nullable
+    private CachedTimetable getDay(@NonNull SQLiteDatabase db, @NonNull RouteDayKey key) {
+        final Cursor cursor = db.rawQuery(TimetableContract.SELECT_DAY, new String[] {
+                key.fromStationId, key.toStationId, String.valueOf(key.dayMsk)});
+        final byte[] data;
+        final long updatedAtMillis;
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            data = cursor.getBlob(0);
+            updatedAtMillis = cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+        try {
+            final Set<Integer> stringIds = new HashSet<>();
+            TimetableBlobCodec.readStringIds(data, stringIds);
+            final TimetableBlobCodec.Decoded decoded = TimetableBlobCodec.decode(data,
+                    key.fromStationId, key.toStationId, withTrainNames,
+                    strings.getValues(db, stringIds));
+            if (withTrainNames && !decoded.hasTrainNames) {
+                // Записано в версии V1, без названий поездов: отдаем как данные с неизвестным
+                // временем записи, чтобы загрузчик сразу обновил их из сети
+                return new CachedTimetable(decoded.timetable, 0);
+            }
+            return new CachedTimetable(decoded.timetable, updatedAtMillis);
+        } catch (TimetableBlobCodec.BadBlobException e) {
+            Log.e(TAG, "Corrupted timetable cache entry: " + key + ": " + e, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return выражение, скомпилированное при первом вызове с этим SQL. Вызывается только
+     * под statementsLock; выражение нужно использовать, не отпуская его.
+     */
+    @NonNull
+    private SQLiteStatement statement(@NonNull SQLiteDatabase db, @NonNull String sql) {
+        SQLiteStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = db.compileStatement(sql);
+            statements.put(sql, statement);
+        }
+        return statement;
+    }
+
+    @NonNull
+    private StringDictionary.Write beginStringsWrite(@NonNull SQLiteDatabase db) {
+        return strings.beginWrite(statement(db, TimetableContract.SELECT_STRING_ID),
+                statement(db, TimetableContract.INSERT_STRING));
+    }
+
+    private static void writeDay(@NonNull SQLiteStatement insert,
+                                 @NonNull RouteDayKey key,
+                                 @NonNull byte[] data,
+                                 long updatedAtMillis) {
+        insert.bindString(1, key.fromStationId);
+        insert.bindString(2, key.toStationId);
+        insert.bindLong(3, key.dayMsk);
+        insert.bindBlob(4, data);
+        insert.bindLong(5, updatedAtMillis);
+        insert.executeInsert();
+    }
+
+    /**
+     * Запоминает индексы строк, на которые ссылается записываемое расписание.
+     */
+    private static final class RecordingStringIds implements TimetableBlobCodec.StringIds {
+
+        @NonNull
+        private final TimetableBlobCodec.StringIds ids;
+        @NonNull
+        private final Set<Integer> recorded;
+
+        RecordingStringIds(@NonNull TimetableBlobCodec.StringIds ids,
+                           @NonNull Set<Integer> recorded) {
+            this.ids = ids;
+            this.recorded = recorded;
+        }
+
+        @Override
+        public int idOf(@NonNull String value) {
+            final int id = ids.idOf(value);
+            recorded.add(id);
+            return id;
+        }
+    }
+}
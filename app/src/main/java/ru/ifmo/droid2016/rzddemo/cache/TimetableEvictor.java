@@ -0,0 +1,176 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.os.Process;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Фоновая очистка кэша расписаний: удаляет маршруты-дни раньше текущей даты по МСК, а пока
+ * суммарный размер данных вместе со словарем строк больше
+ * {@link TimetableCachePolicy#MAX_DB_BYTES} -- давно не использовавшиеся маршруты-дни.
+ * В конце прохода, если словарь строк заметно вырос относительно числа маршрутов-дней,
+ * из него убираются строки, на которые больше никто не ссылается.
+ *
+ * Очистка выполняется порциями в коротких транзакциях с паузами между ними, чтобы не мешать
+ * чтению и записи. Проход делается вскоре после запуска, затем раз в {@link #INTERVAL_MILLIS}
+ * и после каждых {@link #WRITES_PER_PASS} записей в кэш.
+ */
+final class TimetableEvictor implements Runnable {
+
+    private static final long START_DELAY_MILLIS = 10 * 1000;
+    private static final long INTERVAL_MILLIS = 30 * 60 * 1000;
+    private static final int WRITES_PER_PASS = 32;
+
+    private static final int BATCH_ROUTE_DAYS = 32;
+    private static final long BATCH_DELAY_MILLIS = 50;
+
+    /**
+     * Неиспользуемые строки собираются, когда строк в словаре больше, чем ожидается при
+     * текущем числе маршрутов-дней, на эту долю и еще на {@link #MIN_UNUSED_STRINGS}.
+     */
+    private static final double UNUSED_STRINGS_RATIO = 0.25;
+    private static final long MIN_UNUSED_STRINGS = 256;
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private static volatile TimetableEvictor instance;
+
+    static void start(@NonNull TimetableDbStore store) {
+        if (started.compareAndSet(false, true)) {
+            instance = new TimetableEvictor(store);
+            final Thread thread = new Thread(instance, "TimetableEvictor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Сообщает о записи в кэш count маршрутов-дней: после нескольких записей будет
+     * внеочередной проход.
+     */
+    @AnyThread
+    static void onWrite(int count) {
+        final TimetableEvictor evictor = instance;
+        if (evictor != null && count > 0) {
+            evictor.countWrites(count);
+        }
+    }
+
+    @NonNull
+    private final TimetableDbStore store;
+
+    @NonNull
+    private final TimetableMemoryCache memoryCache = TimetableMemoryCache.getInstance();
+
+    // Доступ под this
+    private int writes;
+
+    /**
+     * Строк словаря на маршрут-день сразу после последней сборки, когда все строки
+     * используются. Отрицательное -- неизвестно, тогда строки собираются в ближайший проход.
+     */
+    // Доступ только из потока очистки
+    private double usedStringsPerDay = -1;
+
+    private TimetableEvictor(@NonNull TimetableDbStore store) {
+        this.store = store;
+    }
+
+    private synchronized void countWrites(int count) {
+        writes += count;
+        if (writes >= WRITES_PER_PASS) {
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            Thread.sleep(START_DELAY_MILLIS);
+            while (true) {
+                try {
+                    runPass();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to clean up timetable cache: " + e, e);
+                }
+                awaitNextPass();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void awaitNextPass() throws InterruptedException {
+        if (writes < WRITES_PER_PASS) {
+            wait(INTERVAL_MILLIS);
+        }
+        writes = 0;
+    }
+
+    @WorkerThread
+    private void runPass() throws InterruptedException {
+        final long startTime = System.currentTimeMillis();
+        store.flushAccessTimes();
+
+        final int today = TimeUtils.getMskDay(
+                TimeUtils.getCurrentTime(TimeUtils.getMskTimeZone()));
+        int purged = 0;
+        int deleted;
+        while ((deleted = store.deleteDaysBefore(today, BATCH_ROUTE_DAYS)) > 0) {
+            purged += deleted;
+            Thread.sleep(BATCH_DELAY_MILLIS);
+        }
+
+        int evicted = 0;
+        while (store.getTotalSizeBytes() > TimetableCachePolicy.MAX_DB_BYTES) {
+            final List<RouteDayKey> keys = store.deleteLeastRecentlyUsed(BATCH_ROUTE_DAYS);
+            if (keys.isEmpty()) {
+                break;
+            }
+            for (RouteDayKey key : keys) {
+                memoryCache.remove(key);
+            }
+            evicted += keys.size();
+            Thread.sleep(BATCH_DELAY_MILLIS);
+        }
+
+        // Строки остаются и после перезаписи маршрутов-дней, поэтому словарь проверяется
+        // в каждом проходе, а не только после удаления
+        final int unusedStrings = deleteUnusedStringsIfGrown();
+
+        TimetableCacheStats.getInstance().onCleanup(purged, evicted);
+        if (purged > 0 || evicted > 0 || unusedStrings > 0) {
+            Log.d(TAG, "Timetable cache cleanup: purged=" + purged + ", evicted=" + evicted
+                    + ", unusedStrings=" + unusedStrings
+                    + " in " + (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+
+    /**
+     * @return сколько неиспользуемых строк удалено.
+     */
+    @WorkerThread
+    private int deleteUnusedStringsIfGrown() {
+        final long days = store.getDayCount();
+        final long stringCount = store.getStringCount();
+        if (stringCount == 0 || usedStringsPerDay >= 0 && stringCount
+                <= days * usedStringsPerDay * (1 + UNUSED_STRINGS_RATIO) + MIN_UNUSED_STRINGS) {
+            return 0;
+        }
+        final int deleted = store.deleteUnusedStrings();
+        final long daysAfter = store.getDayCount();
+        usedStringsPerDay = daysAfter == 0
+                ? -1 : (double) store.getStringCount() / daysAfter;
+        return deleted;
+    }
+}
@@ -0,0 +1,175 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.os.Process;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Отложенная запись расписаний в БД (write-behind) в отдельном потоке, чтобы загрузчики
+ * не ждали диска.
+ *
+ * Записи копятся не дольше {@link #BATCH_DELAY_MILLIS} и пишутся одной транзакцией, не больше
+ * {@link #MAX_BATCH_ROUTE_DAYS} маршрутов-дней за раз. Повторная запись маршрута-дня, который
+ * еще не записан, заменяет предыдущую. Пока запись не попала в БД, ее видно через
+ * {@link #get}. Очередь ограничена {@link #MAX_PENDING_ROUTE_DAYS} маршрутами-днями:
+ * при переполнении {@link #put} ждет, пока поток записи ее разгрузит. Сама очередь --
+ * {@link WriteBehindQueue}.
+ *
+ * Android завершает процесс приложения без предупреждения (shutdown hooks при этом не
+ * выполняются), поэтому очередь нельзя оставлять на потом: когда экран расписания
+ * останавливается или приложение уходит в фон, {@link #requestFlush} заставляет поток записи
+ * сразу записать всю очередь, не дожидаясь накопления порций.
+ */
+final class TimetableWriter implements Runnable {
+
+    private static final long BATCH_DELAY_MILLIS = 100;
+    private static final int MAX_BATCH_ROUTE_DAYS = 32;
+    private static final int MAX_PENDING_ROUTE_DAYS = 128;
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private static volatile TimetableWriter instance;
+
+    static void start(@NonNull TimetableDbStore store) {
+        if (started.compareAndSet(false, true)) {
+            instance = new TimetableWriter(store);
+            final Thread thread = new Thread(instance, "TimetableWriter");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * @return экземпляр, созданный {@link #start}.
+     */
+    @AnyThread
+    @NonNull
+    static TimetableWriter getInstance() {
+        final TimetableWriter writer = instance;
+        if (writer == null) {
+            throw new IllegalStateException("TimetableWriter is not started");
+        }
+        return writer;
+    }
+
+    @NonNull
+    private final TimetableDbStore store;
+
+    @NonNull
+    private final WriteBehindQueue<RouteDayKey, CachedTimetable> queue = new WriteBehindQueue<>(
+            MAX_BATCH_ROUTE_DAYS, MAX_PENDING_ROUTE_DAYS, BATCH_DELAY_MILLIS);
+
+    /**
+     * Берется на время записи порции в БД: после {@link #discardPending} уже выбранная
+     * из очереди порция не может записаться.
+     */
+    private final Object writeLock = new Object();
+
+    private TimetableWriter(@NonNull TimetableDbStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Ставит расписание в очередь на запись, заменяя еще не записанное для того же
+     * маршрута-дня.
+     */
+    @WorkerThread
+    void put(@NonNull RouteDayKey key, @NonNull CachedTimetable timetable) {
+        queue.put(key, timetable);
+    }
+
+    /**
+     * @return еще не записанное в БД расписание или null.
+     */
+    @AnyThread
+    @Nullable
+    CachedTimetable get(@NonNull RouteDayKey key) {
+        return queue.get(key);
+    }
+
+    @AnyThread
+    int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * Просит записать всю очередь, не дожидаясь накопления порций.
+     */
+    @AnyThread
+    void requestFlush() {
+        queue.requestFlush();
+    }
+
+    /**
+     * Записывает в БД всю очередь в текущем потоке.
+     */
+    @WorkerThread
+    void flush() {
+        while (writeBatch() > 0) {
+            // Следующая порция
+        }
+    }
+
+    /**
+     * Отбрасывает еще не записанные расписания, дождавшись записи текущей порции.
+     */
+    @WorkerThread
+    void discardPending() {
+        synchronized (writeLock) {
+            queue.clear();
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            while (true) {
+                queue.awaitBatch();
+                writeBatch();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return сколько маршрутов-дней записано.
+     */
+    @WorkerThread
+    private int writeBatch() {
+        synchronized (writeLock) {
+            final Map<RouteDayKey, CachedTimetable> batch = queue.peekBatch();
+            if (batch.isEmpty()) {
+                return 0;
+            }
+
+            final long startTime = System.currentTimeMillis();
+            try {
+                store.putAll(batch);
+            } catch (RuntimeException e) {
+                // Не записалось -- значит, в кэше этого нет, как и при ошибке синхронной записи
+                Log.e(TAG, "Failed to write timetable cache: " + e, e);
+                final TimetableMemoryCache memoryCache = TimetableMemoryCache.getInstance();
+                for (Map.Entry<RouteDayKey, CachedTimetable> failed : batch.entrySet()) {
+                    if (memoryCache.get(failed.getKey()) == failed.getValue()) {
+                        memoryCache.remove(failed.getKey());
+                    }
+                }
+            }
+
+            queue.removeWritten(batch);
+            Log.d(TAG, "Wrote " + batch.size() + " route-days to timetable cache in "
+                    + (System.currentTimeMillis() - startTime) + "ms");
+            return batch.size();
+        }
+    }
+}
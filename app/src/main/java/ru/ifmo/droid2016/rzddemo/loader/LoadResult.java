@@ -21,15 +21,43 @@ public class LoadResult<T> {
     @Nullable
     public final T data;
 
+    /**
+     * Промежуточный ли это результат? Промежуточные результаты доставляются, пока данные еще
+     * загружаются: уже полученная часть данных или устаревшие данные из кэша. После них всегда
+     * доставляется окончательный результат.
+     */
+    public final boolean partial;
+
+    /**
+     * Время этапов загрузки, если оно замерялось (только у окончательного результата).
+     */
+    @Nullable
+    public final LoadTrace trace;
+
     public LoadResult(@NonNull ResultType resultType, @Nullable T data) {
+        this(resultType, data, false);
+    }
+
+    public LoadResult(@NonNull ResultType resultType, @Nullable T data, boolean partial) {
+        this(resultType, data, partial, null);
+    }
+
+    public LoadResult(@NonNull ResultType resultType,
+                      @Nullable T data,
+                      boolean partial,
+                      @Nullable LoadTrace trace) {
         this.resultType = resultType;
         this.data = data;
+        this.partial = partial;
+        this.trace = trace;
     }
 
     @Override
     public String toString() {
         return "LoadResult(resultType=" + resultType
                 + ", data=" + data
+                + ", partial=" + partial
+                + ", trace=" + trace
                 + ")";
     }
 }
@@ -0,0 +1,59 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+/**
+ * Этапы загрузки расписания, время которых записывается в {@link LoadTrace}.
+ */
+public enum LoadStage {
+
+    /**
+     * Чтение из кэша (в памяти или в БД).
+     */
+    CACHE_READ,
+
+    /**
+     * Ожидание такой же загрузки, уже идущей в другом потоке (см. TimetableFetchCoalescer).
+     * Сетевых этапов у такой загрузки нет.
+     */
+    COALESCED_WAIT,
+
+    /**
+     * Получение сессии (если ее еще нет, то запрос; иначе почти ноль).
+     */
+    SESSION,
+
+    /**
+     * Запрос RID.
+     */
+    ROUTE_ID,
+
+    /**
+     * От получения RID до начала запроса, на который пришло расписание: ожидания
+     * между опросами и запросы, на которые расписание еще не было готово.
+     */
+    RID_WAIT,
+
+    /**
+     * Запрос расписания до получения заголовков ответа, включая ожидание в RequestPacer.
+     */
+    TIMETABLE_REQUEST,
+
+    /**
+     * Скачивание и разбор тела ответа: разбор идет прямо из потока, поэтому они неразделимы.
+     */
+    TIMETABLE_PARSE,
+
+    /**
+     * Запись в кэш: в память и в очередь записи в БД, сама запись в БД идет в фоне.
+     */
+    CACHE_WRITE,
+
+    /**
+     * Построение строк для показа (см. TimetableRow).
+     */
+    ROWS,
+
+    /**
+     * Вся загрузка целиком.
+     */
+    TOTAL
+}
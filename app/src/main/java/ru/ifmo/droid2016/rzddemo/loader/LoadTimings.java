@@ -0,0 +1,77 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+import ru.ifmo.droid2016.rzddemo.utils.LatencyHistogram;
+
+/**
+ * Гистограммы времени этапов всех загрузок расписания в процессе.
+ *
+ * Один экземпляр на процесс, потокобезопасный.
+ */
+public final class LoadTimings {
+
+    private static final LoadTimings instance = new LoadTimings();
+
+    @AnyThread
+    @NonNull
+    public static LoadTimings getInstance() {
+        return instance;
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[LoadStage.values().length];
+
+    private LoadTimings() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    @AnyThread
+    void record(@NonNull LoadTrace trace) {
+        for (LoadStage stage : LoadStage.values()) {
+            if (trace.hasStage(stage)) {
+                histograms[stage.ordinal()].record(trace.getMillis(stage));
+            }
+        }
+    }
+
+    @AnyThread
+    @NonNull
+    public LatencyHistogram getHistogram(@NonNull LoadStage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    @AnyThread
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Печатает по строке на этап: число загрузок с этим этапом, p50, p90 и p99 в миллисекундах.
+     */
+    @AnyThread
+    public void dump(@NonNull PrintWriter writer) {
+        writer.println(String.format(Locale.US, "%-18s %8s %8s %8s %8s",
+                "stage", "count", "p50", "p90", "p99"));
+        for (LoadStage stage : LoadStage.values()) {
+            final LatencyHistogram histogram = histograms[stage.ordinal()];
+            writer.println(String.format(Locale.US, "%-18s %8d %8s %8s %8s",
+                    stage.name().toLowerCase(), histogram.getCount(),
+                    formatMillis(histogram.getPercentile(0.5)),
+                    formatMillis(histogram.getPercentile(0.9)),
+                    formatMillis(histogram.getPercentile(0.99))));
+        }
+        writer.flush();
+    }
+
+    private static String formatMillis(long millis) {
+        return millis == Long.MAX_VALUE ? ">10min" : String.valueOf(millis);
+    }
+}
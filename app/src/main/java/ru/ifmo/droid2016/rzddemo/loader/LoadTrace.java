@@ -0,0 +1,75 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Время этапов одной загрузки (см. {@link LoadStage}).
+ *
+ * Заполняется в потоке загрузки, а после доставки в {@link LoadResult} уже не меняется.
+ * Этапы, которых в загрузке не было, не учитываются (см. {@link #hasStage}).
+ */
+public final class LoadTrace {
+
+    private final long[] stageNanos = new long[LoadStage.values().length];
+    private final boolean[] stages = new boolean[LoadStage.values().length];
+
+    private int ridPolls;
+
+    /**
+     * @return текущий момент для замеров, в наносекундах.
+     */
+    static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Добавляет к этапу время от startNanos (см. {@link #now}) до текущего момента.
+     */
+    void end(@NonNull LoadStage stage, long startNanos) {
+        add(stage, now() - startNanos);
+    }
+
+    void add(@NonNull LoadStage stage, long nanos) {
+        stageNanos[stage.ordinal()] += nanos;
+        stages[stage.ordinal()] = true;
+    }
+
+    void onRidPoll() {
+        ridPolls++;
+    }
+
+    public boolean hasStage(@NonNull LoadStage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public long getMillis(@NonNull LoadStage stage) {
+        return stageNanos[stage.ordinal()] / 1000000;
+    }
+
+    /**
+     * @return число запросов расписания по RID, включая последний, успешный.
+     */
+    public int getRidPolls() {
+        return ridPolls;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("LoadTrace(");
+        boolean first = true;
+        for (LoadStage stage : LoadStage.values()) {
+            if (hasStage(stage)) {
+                if (!first) {
+                    sb.append(", ");
+                }
+                first = false;
+                sb.append(stage.name().toLowerCase()).append('=')
+                        .append(getMillis(stage)).append("ms");
+            }
+        }
+        if (ridPolls > 0) {
+            sb.append(", rid_polls=").append(ridPolls);
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,23 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.support.annotation.IntDef;
+
+/**
+ * Как {@link TimetableRangeLoader} загружает дни, которых нет в кэше.
+ */
+@IntDef(value = {
+        RangeFetchMode.PER_DAY,
+        RangeFetchMode.WIDE_WINDOW
+})
+public @interface RangeFetchMode {
+    /**
+     * Отдельная последовательность запросов на каждый день, дни загружаются параллельно.
+     */
+    int PER_DAY = 1;
+
+    /**
+     * Сначала одна последовательность запросов на все недостающие дни сразу, затем
+     * по отдельности -- дни, которых не оказалось в ответе.
+     */
+    int WIDE_WINDOW = 2;
+}
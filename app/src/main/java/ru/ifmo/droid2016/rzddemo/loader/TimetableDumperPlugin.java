@@ -0,0 +1,221 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.facebook.stetho.dumpapp.DumpException;
+import com.facebook.stetho.dumpapp.DumpUsageException;
+import com.facebook.stetho.dumpapp.DumperContext;
+import com.facebook.stetho.dumpapp.DumperPlugin;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import ru.ifmo.droid2016.rzddemo.cache.CachedTimetable;
+import ru.ifmo.droid2016.rzddemo.cache.RouteCacheStats;
+import ru.ifmo.droid2016.rzddemo.cache.RouteDayKey;
+import ru.ifmo.droid2016.rzddemo.cache.TimetableCache;
+import ru.ifmo.droid2016.rzddemo.cache.TimetableCacheStats;
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.DEMO_FROM_STATION_ID;
+import static ru.ifmo.droid2016.rzddemo.Constants.DEMO_FROM_STATION_NAME;
+import static ru.ifmo.droid2016.rzddemo.Constants.DEMO_TO_STATION_ID;
+import static ru.ifmo.droid2016.rzddemo.Constants.DEMO_TO_STATION_NAME;
+import static ru.ifmo.droid2016.rzddemo.Constants.LOG_DATE_FORMAT;
+
+/**
+ * Плагин Stetho dumpapp для диагностики кэша и загрузок расписания на устройстве:
+ *
+ * <pre>
+ * dumpapp timetable [stats]      -- попадания в кэш, размер кэша по маршрутам, очистка,
+ *                                   идущие загрузки, гистограммы времени этапов загрузки
+ * dumpapp timetable flush        -- записать в БД расписания, ожидающие записи
+ * dumpapp timetable clear        -- удалить из кэша все расписания
+ * dumpapp timetable warm [days]  -- загрузить в кэш демо-маршрут на сегодня и days дней вперед
+ * dumpapp timetable reset        -- обнулить счетчики и гистограммы
+ * </pre>
+ *
+ * Версия модели данных кэша выбирается в приложении и не меняется до конца процесса,
+ * поэтому команды, работающие с кэшем, требуют, чтобы он уже был открыт.
+ */
+public final class TimetableDumperPlugin implements DumperPlugin {
+
+    private static final String NAME = "timetable";
+
+    private static final int DEFAULT_WARM_DAYS = 3;
+
+    @NonNull
+    private final Context context;
+
+    public TimetableDumperPlugin(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    @WorkerThread
+    public void dump(DumperContext dumpContext) throws DumpException {
+        final PrintStream out = dumpContext.getStdout();
+        final Iterator<String> args = dumpContext.getArgsAsList().iterator();
+        final String command = args.hasNext() ? args.next() : "stats";
+        switch (command) {
+            case "stats":
+                dumpStats(out);
+                break;
+            case "flush":
+                flush(out);
+                break;
+            case "clear":
+                clear(out);
+                break;
+            case "warm":
+                warm(out, args.hasNext() ? parseDays(args.next()) : DEFAULT_WARM_DAYS);
+                break;
+            case "reset":
+                TimetableCacheStats.getInstance().reset();
+                LoadTimings.getInstance().reset();
+                out.println("Cache counters and load timings reset");
+                break;
+            default:
+                throw new DumpUsageException("Usage: dumpapp " + NAME
+                        + " [stats | flush | clear | warm [days] | reset]");
+        }
+    }
+
+    @WorkerThread
+    private void dumpStats(@NonNull PrintStream out) {
+        final TimetableCacheStats stats = TimetableCacheStats.getInstance();
+        out.println(String.format(Locale.US,
+                "Cache: hit ratio %.2f (memory %d, db %d, miss %d, expired %d), writes %d",
+                stats.getHitRatio(), stats.getMemoryHits(), stats.getDbHits(),
+                stats.getMisses(), stats.getExpired(), stats.getWrites()));
+        out.println("Cleanup: purged " + stats.getPurged() + ", evicted " + stats.getEvicted());
+
+        final TimetableCache cache = openedCache();
+        if (cache == null) {
+            out.println("Cache is not opened yet");
+        } else {
+            out.println("Memory: " + cache.getMemoryEntryCount() + " route-days, ~"
+                    + cache.getMemorySizeBytes() + " bytes");
+            out.println("Pending writes: " + cache.getPendingWriteCount() + " route-days");
+            final List<RouteCacheStats> routes = cache.getRouteStats();
+            out.println("Database: " + routes.size() + " routes, "
+                    + cache.getDbSizeBytes() + " bytes");
+            out.println(String.format(Locale.US, "  %-10s %-10s %6s %10s",
+                    "from", "to", "days", "bytes"));
+            for (RouteCacheStats route : routes) {
+                out.println(String.format(Locale.US, "  %-10s %-10s %6d %10d",
+                        route.fromStationId, route.toStationId, route.days, route.bytes));
+            }
+        }
+
+        final List<RouteDayKey> inFlight = TimetableFetchCoalescer.getInstance().getInFlight();
+        out.println("In-flight loads: " + inFlight.size());
+        for (RouteDayKey key : inFlight) {
+            out.println("  " + key);
+        }
+
+        out.println("Load stage timings, ms:");
+        LoadTimings.getInstance().dump(new PrintWriter(out));
+    }
+
+    @WorkerThread
+    private void flush(@NonNull PrintStream out) throws DumpException {
+        final TimetableCache cache = requireOpenedCache();
+        out.println("Pending writes before flush: " + cache.getPendingWriteCount()
+                + " route-days");
+        cache.flush();
+        out.println("Pending writes after flush: " + cache.getPendingWriteCount()
+                + " route-days");
+    }
+
+    @WorkerThread
+    private void clear(@NonNull PrintStream out) throws DumpException {
+        final int deleted = requireOpenedCache().clear();
+        out.println("Deleted " + deleted + " route-days from timetable cache");
+    }
+
+    /**
+     * Загружает демо-маршрут на сегодня и следующие дни тем же путем, что и загрузчики:
+     * через {@link TimetableFetchCoalescer}. Дни, которые уже есть в кэше, пропускаются.
+     */
+    @WorkerThread
+    private void warm(@NonNull PrintStream out, int days) throws DumpException {
+        final TimetableCache cache = requireOpenedCache();
+        final TimetableFetcher fetcher = new TimetableFetcher(context, cache);
+        final Calendar date = TimeUtils.getCurrentTime(TimeUtils.getMskTimeZone());
+        try {
+            for (int i = 0; i <= days; i++) {
+                final String day = LOG_DATE_FORMAT.format(date.getTime());
+                final CachedTimetable cached =
+                        cache.getCached(DEMO_FROM_STATION_ID, DEMO_TO_STATION_ID, date);
+                if (cached != null) {
+                    out.println(day + ": already cached, " + cached.timetable.size() + " trains");
+                } else {
+                    final TimetableRequest request = new TimetableRequest(
+                            DEMO_FROM_STATION_ID, DEMO_FROM_STATION_NAME,
+                            DEMO_TO_STATION_ID, DEMO_TO_STATION_NAME,
+                            (Calendar) date.clone(), TimeUtils.getNextDay(date));
+                    final LoadTrace trace = new LoadTrace();
+                    final long startTime = LoadTrace.now();
+                    final LoadResult<List<TimetableEntry>> result =
+                            TimetableFetchCoalescer.getInstance().fetch(
+                                    fetcher, request, null, trace);
+                    trace.end(LoadStage.TOTAL, startTime);
+                    LoadTimings.getInstance().record(trace);
+                    out.println(day + ": " + result.resultType
+                            + (result.data != null ? ", " + result.data.size() + " trains" : "")
+                            + ", " + trace);
+                }
+                date.add(Calendar.DAY_OF_MONTH, 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DumpException("Interrupted");
+        }
+    }
+
+    private static int parseDays(@NonNull String value) throws DumpUsageException {
+        try {
+            final int days = Integer.parseInt(value);
+            if (days >= 0) {
+                return days;
+            }
+        } catch (NumberFormatException e) {
+            // Сообщение ниже
+        }
+        throw new DumpUsageException("Number of days must be a non-negative integer: " + value);
+    }
+
+    @NonNull
+    private TimetableCache requireOpenedCache() throws DumpException {
+        final TimetableCache cache = openedCache();
+        if (cache == null) {
+            throw new DumpException("Timetable cache is not opened yet:"
+                    + " open a timetable screen in the app first");
+        }
+        return cache;
+    }
+
+    /**
+     * @return кэш той версии, с которой он уже открыт в процессе, или null.
+     */
+    @Nullable
+    private TimetableCache openedCache() {
+        final int version = TimetableCache.getOpenedVersion();
+        //noinspection WrongConstant
+        return version == -1 ? null : new TimetableCache(context, version);
+    }
+}
@@ -0,0 +1,199 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.ifmo.droid2016.rzddemo.api.EntrySink;
+import ru.ifmo.droid2016.rzddemo.cache.RouteDayKey;
+import ru.ifmo.droid2016.rzddemo.loader.InFlightLoads.Load;
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Объединяет одновременные загрузки одного и того же маршрута-дня с одним и тем же окном дат:
+ * пока загрузка идет, остальные желающие присоединяются к ней и получают тот же
+ * {@link LoadResult}, а также промежуточные поезда -- и уже полученные, и приходящие дальше.
+ *
+ * Загрузка окна дат ({@link #fetchWindow}) тоже считается загрузкой каждого своего дня.
+ * Учет идущих загрузок и раздачу их поездов ведет {@link InFlightLoads}.
+ *
+ * Загрузка считается завершенной после записи результата в кэш, поэтому между ними нет
+ * момента, когда данных нет ни в кэше, ни в загрузке.
+ *
+ * Один экземпляр на процесс, потокобезопасный.
+ */
+final class TimetableFetchCoalescer {
+
+    private static final TimetableFetchCoalescer instance = new TimetableFetchCoalescer();
+
+    @AnyThread
+    @NonNull
+    static TimetableFetchCoalescer getInstance() {
+        return instance;
+    }
+
+    @NonNull
+    private final InFlightLoads<FetchKey, LoadResult<List<TimetableEntry>>, TimetableEntry>
+            inFlight = new InFlightLoads<>();
+
+    private TimetableFetchCoalescer() {}
+
+    /**
+     * Загружает расписание или дожидается уже идущей загрузки того же маршрута-дня с тем же
+     * окном дат.
+     *
+     * @param trace если загрузка уже идет, сюда записывается время ожидания ее окончания
+     *              ({@link LoadStage#COALESCED_WAIT}), иначе -- время этапов загрузки.
+     */
+    @WorkerThread
+    @NonNull
+    LoadResult<List<TimetableEntry>> fetch(@NonNull TimetableFetcher fetcher,
+                                           @NonNull TimetableRequest request,
+                                           @Nullable EntrySink<TimetableEntry> sink,
+                                           @NonNull LoadTrace trace)
+            throws InterruptedException {
+        final FetchKey key = new FetchKey(request);
+        while (true) {
+            final Load<LoadResult<List<TimetableEntry>>, TimetableEntry> own = new Load<>();
+            final Load<LoadResult<List<TimetableEntry>>, TimetableEntry> existing =
+                    inFlight.joinOrRegister(key, own);
+            final Load<LoadResult<List<TimetableEntry>>, TimetableEntry> fetch =
+                    existing == null ? own : existing;
+            if (sink != null) {
+                fetch.addSink(sink);
+            }
+
+            if (existing != null) {
+                Log.d(TAG, "Joined in-flight load: " + request);
+                final long startTime = LoadTrace.now();
+                final LoadResult<List<TimetableEntry>> result;
+                try {
+                    result = existing.await();
+                } finally {
+                    trace.end(LoadStage.COALESCED_WAIT, startTime);
+                }
+                if (result != null) {
+                    return result;
+                }
+                // Загрузка окна дат не вернула этот день -- загружаем сами
+                continue;
+            }
+
+            LoadResult<List<TimetableEntry>> result = null;
+            try {
+                result = fetcher.fetch(request, own, trace);
+                return result;
+            } finally {
+                inFlight.finish(key, own, result != null
+                        ? result : new LoadResult<List<TimetableEntry>>(ResultType.ERROR, null));
+            }
+        }
+    }
+
+    /**
+     * Загружает расписание сразу на окно дат (см. {@link TimetableFetcher#fetchWindow}). Пока
+     * загрузка идет, она считается загрузкой каждого дня окна: {@link #fetch} одного дня
+     * дожидается ее и получает этот день из ее результата. Дни, которые уже загружаются по
+     * отдельности, в окне все равно запрашиваются, но их загрузки не подменяются. Если дня не
+     * оказалось в результате, дождавшиеся загружают его сами.
+     *
+     * @param trace сюда записывается время этапов загрузки.
+     */
+    @WorkerThread
+    @NonNull
+    LoadResult<SparseArray<List<TimetableEntry>>> fetchWindow(
+            @NonNull TimetableFetcher fetcher,
+            @NonNull TimetableRequest window,
+            @NonNull LoadTrace trace) {
+        final int fromDay = TimeUtils.getMskDay(window.fromDate);
+        final int toDay = TimeUtils.getMskDay(window.toDate);
+        final Map<FetchKey, Load<LoadResult<List<TimetableEntry>>, TimetableEntry>> owned =
+                new HashMap<>();
+        for (int day = fromDay; day < toDay; day++) {
+            final FetchKey key = new FetchKey(
+                    new RouteDayKey(window.fromStationId, window.toStationId, day), day + 1);
+            final Load<LoadResult<List<TimetableEntry>>, TimetableEntry> fetch = new Load<>();
+            if (inFlight.joinOrRegister(key, fetch) == null) {
+                owned.put(key, fetch);
+            }
+        }
+
+        LoadResult<SparseArray<List<TimetableEntry>>> result = null;
+        try {
+            result = fetcher.fetchWindow(window, trace);
+            return result;
+        } finally {
+            final SparseArray<List<TimetableEntry>> days = result != null
+                    && result.resultType == ResultType.OK ? result.data : null;
+            for (Map.Entry<FetchKey, Load<LoadResult<List<TimetableEntry>>, TimetableEntry>> entry
+                    : owned.entrySet()) {
+                final List<TimetableEntry> timetable =
+                        days == null ? null : days.get(entry.getKey().routeDay.dayMsk);
+                inFlight.finish(entry.getKey(), entry.getValue(), timetable == null
+                        ? null : new LoadResult<>(ResultType.OK, timetable));
+            }
+        }
+    }
+
+    /**
+     * @return маршруты-дни, загрузка которых идет прямо сейчас.
+     */
+    @AnyThread
+    @NonNull
+    List<RouteDayKey> getInFlight() {
+        final List<FetchKey> keys = inFlight.getKeys();
+        final List<RouteDayKey> result = new ArrayList<>(keys.size());
+        for (FetchKey key : keys) {
+            result.add(key.routeDay);
+        }
+        return result;
+    }
+
+    /**
+     * Маршрут-день и конец окна дат запроса: загрузки с разными окнами возвращают разные
+     * данные, и объединять их нельзя.
+     */
+    private static final class FetchKey {
+
+        @NonNull
+        final RouteDayKey routeDay;
+        final int toDayMsk;
+
+        FetchKey(@NonNull TimetableRequest request) {
+            this(request.getKey(), TimeUtils.getMskDay(request.toDate));
+        }
+
+        FetchKey(@NonNull RouteDayKey routeDay, int toDayMsk) {
+            this.routeDay = routeDay;
+            this.toDayMsk = toDayMsk;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FetchKey)) {
+                return false;
+            }
+            final FetchKey other = (FetchKey) o;
+            return toDayMsk == other.toDayMsk && routeDay.equals(other.routeDay);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * routeDay.hashCode() + toDayMsk;
+        }
+    }
+}
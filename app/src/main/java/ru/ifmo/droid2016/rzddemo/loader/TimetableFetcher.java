@@ -0,0 +1,350 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import ru.ifmo.droid2016.rzddemo.api.ApiResponseParser;
+import ru.ifmo.droid2016.rzddemo.api.BadResponseException;
+import ru.ifmo.droid2016.rzddemo.api.EntrySink;
+import ru.ifmo.droid2016.rzddemo.api.RZDApi;
+import ru.ifmo.droid2016.rzddemo.api.RidNotReadyException;
+import ru.ifmo.droid2016.rzddemo.api.RidPollScheduler;
+import ru.ifmo.droid2016.rzddemo.api.RoundTripTimetableParser;
+import ru.ifmo.droid2016.rzddemo.api.RouteIdParser;
+import ru.ifmo.droid2016.rzddemo.api.TimetableParser;
+import ru.ifmo.droid2016.rzddemo.cache.TimetableCache;
+import ru.ifmo.droid2016.rzddemo.model.RoundTripTimetable;
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.NetworkUtils;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.LOG_DATE_FORMAT;
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Загружает расписание из RZD API и сохраняет успешно загруженное в кэш.
+ */
+final class TimetableFetcher {
+
+    @NonNull
+    private final Context context;
+    @NonNull
+    private final TimetableCache cache;
+
+    TimetableFetcher(@NonNull Context context, @NonNull TimetableCache cache) {
+        this.context = context.getApplicationContext();
+        this.cache = cache;
+    }
+
+    /**
+     * @param sink  получает поезда по мере разбора ответа, см. {@link TimetableParser}.
+     * @param trace сюда записывается время сетевых этапов и записи в кэш.
+     */
+    @WorkerThread
+    @NonNull
+    LoadResult<List<TimetableEntry>> fetch(@NonNull TimetableRequest request,
+                                           @Nullable EntrySink<TimetableEntry> sink,
+                                           @NonNull LoadTrace trace) {
+        final LoadResult<List<TimetableEntry>> result = loadFromApi(request, sink, trace);
+        if (result.resultType == ResultType.OK && result.data != null) {
+            final long startTime = LoadTrace.now();
+            saveToCache(request, result.data);
+            trace.end(LoadStage.CACHE_WRITE, startTime);
+        }
+        return result;
+    }
+
+    /**
+     * Загружает расписание сразу на все дни от request.fromDate до request.toDate (не включая
+     * его) одной последовательностью запросов (сессия, RID, расписание) и сохраняет в кэш
+     * каждый день отдельно.
+     *
+     * В кэш попадают только дни, на которые в ответе есть поезда, и всегда первый день:
+     * если сервер вернул не все дни окна, отсутствующие не должны выглядеть днями без
+     * поездов -- они загрузятся обычным образом.
+     *
+     * Вызывается через {@link TimetableFetchCoalescer#fetchWindow}.
+     *
+     * @param trace сюда записывается время сетевых этапов и записи в кэш.
+     * @return расписания по дням (ключ -- день по МСК), сохраненные в кэш.
+     */
+    @WorkerThread
+    @NonNull
+    LoadResult<SparseArray<List<TimetableEntry>>> fetchWindow(
+            @NonNull TimetableRequest request,
+            @NonNull LoadTrace trace) {
+        final LoadResult<List<TimetableEntry>> result = loadFromApi(request, null, trace);
+        if (result.resultType != ResultType.OK || result.data == null) {
+            return new LoadResult<>(result.resultType, null);
+        }
+        final long startTime = LoadTrace.now();
+
+        final int fromDay = TimeUtils.getMskDay(request.fromDate);
+        final int toDay = TimeUtils.getMskDay(request.toDate);
+        final Map<Integer, List<TimetableEntry>> days =
+                TimetableParser.splitByMskDay(result.data);
+        final SparseArray<List<TimetableEntry>> saved = new SparseArray<>();
+        for (int day = fromDay; day < toDay; day++) {
+            List<TimetableEntry> timetable = days.get(day);
+            if (timetable == null && day == fromDay) {
+                timetable = Collections.emptyList();
+            }
+            if (timetable != null) {
+                timetable = Collections.unmodifiableList(timetable);
+                cache.put(request.fromStationId, request.toStationId,
+                        addDays(request.fromDate, day - fromDay), timetable);
+                saved.put(day, timetable);
+            }
+        }
+        trace.end(LoadStage.CACHE_WRITE, startTime);
+        Log.d(TAG, "Write to cache: " + request + ", days=" + saved.size()
+                + " of " + (toDay - fromDay) + ", data size=" + result.data.size());
+        return new LoadResult<>(ResultType.OK, saved);
+    }
+
+    /**
+     * Загружает одним запросом расписание туда (маршрут и дата отправления из request) и
+     * обратно (на дату returnDate) и сохраняет в кэш оба направления.
+     *
+     * @param trace сюда записывается время сетевых этапов и записи в кэш.
+     */
+    @WorkerThread
+    @NonNull
+    LoadResult<RoundTripTimetable> fetchRoundTrip(@NonNull TimetableRequest request,
+                                                  @NonNull Calendar returnDate,
+                                                  @NonNull LoadTrace trace) {
+        final LoadResult<RoundTripTimetable> result =
+                loadRoundTripFromApi(request, returnDate, trace);
+        final RoundTripTimetable data = result.data;
+        if (result.resultType != ResultType.OK || data == null || data.inbound == null) {
+            return result;
+        }
+        final RoundTripTimetable timetable = new RoundTripTimetable(
+                Collections.unmodifiableList(data.outbound),
+                Collections.unmodifiableList(data.inbound));
+        Log.d(TAG, "Write to cache: " + request + ", return date="
+                + LOG_DATE_FORMAT.format(returnDate.getTime())
+                + ", data size=" + timetable.outbound.size() + "+" + timetable.inbound.size());
+        final long startTime = LoadTrace.now();
+        cache.put(request.fromStationId, request.toStationId, request.fromDate,
+                timetable.outbound);
+        cache.put(request.toStationId, request.fromStationId, returnDate, timetable.inbound);
+        trace.end(LoadStage.CACHE_WRITE, startTime);
+        return new LoadResult<>(ResultType.OK, timetable);
+    }
+
+    @NonNull
+    private static Calendar addDays(@NonNull Calendar fromDate, int offsetDays) {
+        final Calendar date = (Calendar) fromDate.clone();
+        date.add(Calendar.DAY_OF_MONTH, offsetDays);
+        return date;
+    }
+
+    private void saveToCache(@NonNull TimetableRequest request,
+                             @NonNull List<TimetableEntry> data) {
+        Log.d(TAG, "Write to cache: " + request + ", data size=" + data.size());
+        cache.put(request.fromStationId, request.toStationId, request.fromDate, data);
+    }
+
+    @NonNull
+    private LoadResult<List<TimetableEntry>> loadFromApi(
+            @NonNull final TimetableRequest request,
+            @Nullable final EntrySink<TimetableEntry> sink,
+            @NonNull LoadTrace trace) {
+        final LoadResult<List<TimetableEntry>> result =
+                execute(trace, new ApiSequence<List<TimetableEntry>>() {
+                    @Override
+                    HttpURLConnection createRouteRequest()
+                            throws IOException, URISyntaxException {
+                        return RZDApi.createRouteRequest(request.fromStationName,
+                                request.fromStationId, request.toStationName,
+                                request.toStationId, request.fromDate, request.toDate);
+                    }
+
+                    @Override
+                    HttpURLConnection createTimetableRequest(@NonNull String routeId)
+                            throws IOException, URISyntaxException {
+                        return RZDApi.createTimetableRequest(request.fromStationName,
+                                request.fromStationId, request.toStationName,
+                                request.toStationId, request.fromDate, request.toDate,
+                                routeId);
+                    }
+
+                    @NonNull
+                    @Override
+                    ApiResponseParser<List<TimetableEntry>> createParser() {
+                        return new TimetableParser(request.fromStationId, request.toStationId,
+                                sink);
+                    }
+                });
+        if (result.data == null) {
+            return result;
+        }
+        Log.d(TAG, "timetable size: " + result.data.size());
+        // Результат может достаться нескольким загрузчикам сразу
+        return new LoadResult<>(result.resultType,
+                Collections.unmodifiableList(result.data));
+    }
+
+    @NonNull
+    private LoadResult<RoundTripTimetable> loadRoundTripFromApi(
+            @NonNull final TimetableRequest request,
+            @NonNull final Calendar returnDate,
+            @NonNull LoadTrace trace) {
+        return execute(trace, new ApiSequence<RoundTripTimetable>() {
+            @Override
+            HttpURLConnection createRouteRequest() throws IOException, URISyntaxException {
+                return RZDApi.createRoundTripRouteRequest(request.fromStationName,
+                        request.fromStationId, request.toStationName, request.toStationId,
+                        request.fromDate, returnDate);
+            }
+
+            @Override
+            HttpURLConnection createTimetableRequest(@NonNull String routeId)
+                    throws IOException, URISyntaxException {
+                return RZDApi.createRoundTripTimetableRequest(request.fromStationName,
+                        request.fromStationId, request.toStationName, request.toStationId,
+                        request.fromDate, returnDate, routeId);
+            }
+
+            @NonNull
+            @Override
+            ApiResponseParser<RoundTripTimetable> createParser() {
+                return new RoundTripTimetableParser(request.fromStationId, request.toStationId,
+                        TimeUtils.getMskDay(request.fromDate), TimeUtils.getMskDay(returnDate));
+            }
+        });
+    }
+
+    /**
+     * Последовательность запросов к RZD API: сессия, RID, расписание.
+     */
+    @NonNull
+    private <T> LoadResult<T> execute(@NonNull LoadTrace trace,
+                                      @NonNull ApiSequence<T> sequence) {
+        ResultType resultType = ResultType.ERROR;
+        T data = null;
+
+        try {
+            long startTime = LoadTrace.now();
+            RZDApi.ensureSession();
+            trace.end(LoadStage.SESSION, startTime);
+
+            startTime = LoadTrace.now();
+            final String routeId = RZDApi.executeRequest(sequence.createRouteRequest(),
+                    new RouteIdParser());
+            trace.end(LoadStage.ROUTE_ID, startTime);
+
+            data = pollTimetable(sequence, routeId, trace);
+            resultType = ResultType.OK;
+
+        } catch (MalformedURLException e) {
+            Log.e(TAG, "Failed to get timetable: " + e, e);
+
+        } catch (IOException e) {
+            if (NetworkUtils.isConnectionAvailable(context, false)) {
+                resultType = ResultType.ERROR;
+            } else {
+                resultType = ResultType.NO_INTERNET;
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+        } catch (RidNotReadyException e) {
+            // Уже записано в журнал в pollTimetable
+
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to get timetable: " + e, e);
+        }
+
+        return new LoadResult<>(resultType, data);
+    }
+
+    /**
+     * RZD API отдает расписание не сразу после выдачи RID: до этого на запрос расписания
+     * снова приходит ответ с RID. Запрашиваем, пока не получим, в моменты, которые выбирает
+     * {@link RidPollScheduler}.
+     */
+    @NonNull
+    private static <T> T pollTimetable(@NonNull ApiSequence<T> sequence,
+                                       @NonNull String routeId,
+                                       @NonNull LoadTrace trace)
+            throws IOException, BadResponseException, URISyntaxException, InterruptedException {
+        final RidPollScheduler.Poll poll = RidPollScheduler.getInstance().startPoll();
+        final long waitStartTime = LoadTrace.now();
+        while (true) {
+            try {
+                poll.awaitNextPoll();
+            } catch (RidNotReadyException e) {
+                // Расписание так и не стало готово -- это не ошибка ответа сервера
+                trace.add(LoadStage.RID_WAIT, LoadTrace.now() - waitStartTime);
+                Log.w(TAG, "Gave up waiting for timetable: rid=" + routeId
+                        + ", polls=" + trace.getRidPolls() + ": " + e.getMessage());
+                throw e;
+            }
+            final long requestStartTime = LoadTrace.now();
+            final TimedParser<T> parser = new TimedParser<>(sequence.createParser());
+            trace.onRidPoll();
+            try {
+                final T data = RZDApi.executeRequest(
+                        sequence.createTimetableRequest(routeId), parser);
+                poll.onReady();
+                trace.add(LoadStage.RID_WAIT, requestStartTime - waitStartTime);
+                trace.add(LoadStage.TIMETABLE_REQUEST, parser.startTime - requestStartTime);
+                trace.end(LoadStage.TIMETABLE_PARSE, parser.startTime);
+                return data;
+            } catch (RidNotReadyException e) {
+                poll.onNotReady();
+            }
+        }
+    }
+
+    /**
+     * Запоминает, когда начался разбор ответа: до этого -- соединение и заголовки ответа,
+     * после -- скачивание и разбор тела.
+     */
+    private static final class TimedParser<T> implements ApiResponseParser<T> {
+
+        @NonNull
+        private final ApiResponseParser<T> parser;
+
+        long startTime;
+
+        TimedParser(@NonNull ApiResponseParser<T> parser) {
+            this.parser = parser;
+        }
+
+        @NonNull
+        @Override
+        public T parse(InputStream in, String charset) throws IOException, BadResponseException {
+            startTime = LoadTrace.now();
+            return parser.parse(in, charset);
+        }
+    }
+
+    private static abstract class ApiSequence<T> {
+
+        abstract HttpURLConnection createRouteRequest() throws IOException, URISyntaxException;
+
+        abstract HttpURLConnection createTimetableRequest(@NonNull String routeId)
+                throws IOException, URISyntaxException;
+
+        @NonNull
+        abstract ApiResponseParser<T> createParser();
+    }
+}
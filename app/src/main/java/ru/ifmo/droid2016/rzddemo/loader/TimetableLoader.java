@@ -1,52 +1,75 @@
 package ru.ifmo.droid2016.rzddemo.loader;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.support.v4.content.AsyncTaskLoader;
 import android.util.Log;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.net.MalformedURLException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
+import ru.ifmo.droid2016.rzddemo.TimetableRow;
 import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
-import ru.ifmo.droid2016.rzddemo.api.ApiResponseParser;
-import ru.ifmo.droid2016.rzddemo.api.RZDApi;
-import ru.ifmo.droid2016.rzddemo.api.RouteIdParser;
-import ru.ifmo.droid2016.rzddemo.api.TimetableParser;
+import ru.ifmo.droid2016.rzddemo.api.EntrySink;
+import ru.ifmo.droid2016.rzddemo.cache.CachedTimetable;
 import ru.ifmo.droid2016.rzddemo.cache.DataSchemeVersion;
 import ru.ifmo.droid2016.rzddemo.cache.TimetableCache;
-import ru.ifmo.droid2016.rzddemo.utils.IOUtils;
 
-import static ru.ifmo.droid2016.rzddemo.Constants.LOG_DATE_FORMAT;
 import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
 
 /**
  * Загружает расписание по заданным параметрам.
+ *
+ * При загрузке из сети, пока ответ еще читается, доставляет промежуточные результаты
+ * ({@link LoadResult#partial}) с уже разобранными поездами -- не чаще, чем раз в
+ * {@link #PARTIAL_RESULT_INTERVAL_MILLIS}.
+ *
+ * Stale-while-revalidate: если расписание в кэше старше заданного возраста, оно сразу
+ * доставляется промежуточным результатом, а затем обновляется из сети. Окончательным
+ * результатом будут свежие данные, а если обновить не удалось -- снова данные из кэша.
  */
-public class TimetableLoader extends AsyncTaskLoader<LoadResult<List<TimetableEntry>>> {
+public class TimetableLoader extends AsyncTaskLoader<LoadResult<List<TimetableRow>>> {
+
+    private static final long PARTIAL_RESULT_INTERVAL_MILLIS = 200;
 
     @NonNull
-    private final String fromStationId;
-    @NonNull
-    private final String fromStationName;
-    @NonNull
-    private final String toStationId;
+    private final TimetableRequest request;
+
+    @DataSchemeVersion
+    private final int version;
+
+    /**
+     * Данные из кэша старше этого возраста обновляются из сети.
+     */
+    private final long maxCacheAgeMillis;
+
     @NonNull
-    private final String toStationName;
+    private final TimetableCache cache;
     @NonNull
-    private final Calendar fromDate;
+    private final TimetableFetcher fetcher;
+
     @NonNull
-    private final Calendar toDate;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     @NonNull
-    private final TimetableCache cache;
+    private final TimetableRow.Factory rowFactory;
+
+    private LoadResult<List<TimetableRow>> lastResult;
 
-    private LoadResult<List<TimetableEntry>> lastResult;
+    /**
+     * Меняется при каждом запуске загрузки и при доставке окончательного результата, чтобы
+     * запоздавшие промежуточные результаты не доставлялись.
+     */
+    private volatile int generation;
 
     public TimetableLoader(@NonNull Context context,
                            @NonNull String fromStationId,
@@ -56,109 +79,198 @@ public class TimetableLoader extends AsyncTaskLoader<LoadResult<List<TimetableEn
                            @NonNull Calendar fromDate,
                            @NonNull Calendar toDate,
                            @DataSchemeVersion int version) {
+        this(context, fromStationId, fromStationName, toStationId, toStationName, fromDate,
+                toDate, version, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxCacheAgeMillis данные из кэша старше этого возраста показываются сразу,
+     *                          но затем обновляются из сети.
+     */
+    public TimetableLoader(@NonNull Context context,
+                           @NonNull String fromStationId,
+                           @NonNull String fromStationName,
+                           @NonNull String toStationId,
+                           @NonNull String toStationName,
+                           @NonNull Calendar fromDate,
+                           @NonNull Calendar toDate,
+                           @DataSchemeVersion int version,
+                           long maxCacheAgeMillis) {
         super(context);
-        this.fromStationId = fromStationId;
-        this.fromStationName = fromStationName;
-        this.toStationId = toStationId;
-        this.toStationName = toStationName;
-        this.fromDate = fromDate;
-        this.toDate = toDate;
+        request = new TimetableRequest(fromStationId, fromStationName, toStationId,
+                toStationName, fromDate, toDate);
+        this.version = version;
+        this.maxCacheAgeMillis = maxCacheAgeMillis;
         cache = new TimetableCache(context, version);
+        fetcher = new TimetableFetcher(context, cache);
+        rowFactory = new TimetableRow.Factory(context);
+    }
+
+    @NonNull
+    public TimetableRequest getRequest() {
+        return request;
+    }
+
+    @DataSchemeVersion
+    public int getVersion() {
+        return version;
     }
 
     @Override
     protected void onStartLoading() {
         if (lastResult == null) {
             forceLoad();
+        } else if (lastResult.partial) {
+            // Загрузка еще идет, окончательный результат будет доставлен позже
+            super.deliverResult(lastResult);
         } else {
             deliverResult(lastResult);
         }
     }
 
     @Override
-    public void deliverResult(LoadResult<List<TimetableEntry>> data) {
+    protected void onForceLoad() {
+        generation++;
+        super.onForceLoad();
+    }
+
+    @Override
+    public void deliverResult(LoadResult<List<TimetableRow>> data) {
+        generation++;
         lastResult = data;
         super.deliverResult(data);
     }
 
+    @MainThread
+    private void deliverPartialResult(int generation,
+                                      @NonNull LoadResult<List<TimetableRow>> data) {
+        if (generation == this.generation && isStarted()) {
+            lastResult = data;
+            super.deliverResult(data);
+        }
+    }
+
     @Override
-    public LoadResult<List<TimetableEntry>> loadInBackground() {
-        List<TimetableEntry> timetable = loadFromCache();
-
-        if (timetable != null) {
-            Log.d(TAG, "Loaded from cache: fromStationId=" + fromStationId
-                    + ", toStationId=" + toStationId
-                    + ", date=" + LOG_DATE_FORMAT.format(fromDate.getTime())
-                    + ", data size=" + timetable.size());
+    public LoadResult<List<TimetableRow>> loadInBackground() {
+        final LoadTrace trace = new LoadTrace();
+        final long startTime = LoadTrace.now();
+        final LoadResult<List<TimetableEntry>> result = loadTimetable(trace);
+
+        // Строки для показа строятся здесь же, в потоке загрузчика, а не при привязке к View
+        final long rowsStartTime = LoadTrace.now();
+        final List<TimetableRow> rows =
+                result.data == null ? null : rowFactory.create(result.data);
+        trace.end(LoadStage.ROWS, rowsStartTime);
+        trace.end(LoadStage.TOTAL, startTime);
+
+        LoadTimings.getInstance().record(trace);
+        Log.d(TAG, "Loaded " + request + ": " + result.resultType + ", " + trace);
+        return new LoadResult<>(result.resultType, rows, false, trace);
+    }
+
+    @NonNull
+    private LoadResult<List<TimetableEntry>> loadTimetable(@NonNull LoadTrace trace) {
+        final long cacheStartTime = LoadTrace.now();
+        final CachedTimetable cached = loadFromCache();
+        trace.end(LoadStage.CACHE_READ, cacheStartTime);
+
+        if (cached == null) {
+            return fetch(new PartialResultSink(generation), trace);
+        }
+
+        final List<TimetableEntry> timetable = cached.timetable;
+        final long ageMillis = cached.getAgeMillis();
+        Log.d(TAG, "Loaded from cache: " + request + ", data size=" + timetable.size()
+                + ", age=" + ageMillis + "ms");
+        if (ageMillis <= maxCacheAgeMillis) {
             return new LoadResult<>(ResultType.OK, timetable);
+        }
 
-        } else {
-            LoadResult<List<TimetableEntry>> result = loadFromApi();
-            if (result.resultType == ResultType.OK && result.data != null) {
-                saveToCache(result.data);
-            }
-            return result;
+        // Устаревшие данные показываем сразу, но без промежуточных результатов обновления:
+        // частично загруженный список не должен заменять полный
+        postPartialResult(generation,
+                new LoadResult<>(ResultType.OK, rowFactory.create(timetable), true));
+        final LoadResult<List<TimetableEntry>> fresh = fetch(null, trace);
+        if (fresh.resultType == ResultType.OK) {
+            return fresh;
         }
+        Log.d(TAG, "Failed to revalidate " + request + ": " + fresh.resultType);
+        return new LoadResult<>(ResultType.OK, timetable);
     }
 
-    @Nullable
-    private List<TimetableEntry> loadFromCache() {
+    @NonNull
+    private LoadResult<List<TimetableEntry>> fetch(@Nullable EntrySink<TimetableEntry> sink,
+                                                   @NonNull LoadTrace trace) {
         try {
-            return cache.get(fromStationId, toStationId, fromDate);
-        } catch (FileNotFoundException e) {
-            Log.d(TAG, "Cache miss: " + e);
+            return TimetableFetchCoalescer.getInstance().fetch(fetcher, request, sink, trace);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new LoadResult<>(ResultType.ERROR, null);
         }
-        return null;
     }
 
-    private void saveToCache(@NonNull List<TimetableEntry> data) {
-        Log.d(TAG, "Write to cache: fromStationId=" + fromStationId
-                + ", toStationId=" + toStationId
-                + ", date=" + LOG_DATE_FORMAT.format(fromDate.getTime())
-                + ", data size=" + data.size());
-        cache.put(fromStationId, toStationId, fromDate, data);
+    @Nullable
+    private CachedTimetable loadFromCache() {
+        final CachedTimetable cached =
+                cache.getCached(request.fromStationId, request.toStationId, request.fromDate);
+        if (cached == null) {
+            Log.d(TAG, "Cache miss: " + request);
+        }
+        return cached;
     }
 
-    private LoadResult<List<TimetableEntry>> loadFromApi() {
-        ResultType resultType = ResultType.ERROR;
-        List<TimetableEntry> data = null;
-
-        try {
-            if (!RZDApi.hasSession()) {
-                RZDApi.executeRequest(RZDApi.createSessionRequest(), ApiResponseParser.NULL_PARSER);
-            }
-            final String routeId = RZDApi.executeRequest(
-                    RZDApi.createRouteRequest(fromStationName, fromStationId, toStationName,
-                            toStationId, fromDate, toDate),
-                    new RouteIdParser());
-
-            // RZD API works only if there is delay between requests.
-            Thread.sleep(2000);
-
-            data = RZDApi.executeRequest(
-                    RZDApi.createTimetableRequest(fromStationName, fromStationId, toStationName,
-                            toStationId, fromDate, toDate, routeId),
-                    new TimetableParser(fromStationId, toStationId));
-            resultType = ResultType.OK;
-            Log.d(TAG, "timetable size: " + data.size());
-
-        } catch (MalformedURLException e) {
-            Log.e(TAG, "Failed to get timetable: " + e, e);
-
-        } catch (IOException e) {
-            if (IOUtils.isConnectionAvailable(getContext(), false)) {
-                resultType = ResultType.ERROR;
-            } else {
-                resultType = ResultType.NO_INTERNET;
+    private void postPartialResult(final int generation,
+                                   @NonNull final LoadResult<List<TimetableRow>> data) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliverPartialResult(generation, data);
             }
+        });
+    }
 
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    /**
+     * Накапливает разобранные поезда и периодически доставляет их в главный поток
+     * промежуточным результатом.
+     */
+    private final class PartialResultSink implements EntrySink<TimetableEntry>, Runnable {
 
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to get timetable: " + e, e);
+        private final int generation;
+
+        // Доступ под this
+        private final List<TimetableRow> rows = new ArrayList<>();
+        private boolean scheduled;
+        private long lastPublishTime = -PARTIAL_RESULT_INTERVAL_MILLIS;
+
+        PartialResultSink(int generation) {
+            this.generation = generation;
         }
 
-        return new LoadResult<>(resultType, data);
+        @WorkerThread
+        @Override
+        public void onEntry(@NonNull TimetableEntry entry) {
+            final TimetableRow row = rowFactory.create(entry);
+            synchronized (this) {
+                rows.add(row);
+                if (scheduled || SystemClock.uptimeMillis() - lastPublishTime
+                        < PARTIAL_RESULT_INTERVAL_MILLIS) {
+                    return;
+                }
+                scheduled = true;
+            }
+            mainHandler.post(this);
+        }
+
+        @MainThread
+        @Override
+        public void run() {
+            final List<TimetableRow> snapshot;
+            synchronized (this) {
+                scheduled = false;
+                lastPublishTime = SystemClock.uptimeMillis();
+                snapshot = Collections.unmodifiableList(new ArrayList<>(rows));
+            }
+            deliverPartialResult(generation, new LoadResult<>(ResultType.OK, snapshot, true));
+        }
     }
 }
@@ -0,0 +1,133 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.content.Context;
+import android.os.Process;
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.util.Calendar;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import ru.ifmo.droid2016.rzddemo.cache.DataSchemeVersion;
+import ru.ifmo.droid2016.rzddemo.cache.TimetableCache;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Заранее загружает в кэш расписание на соседние дни, чтобы переход к ним был мгновенным.
+ *
+ * Загрузки идут по одной в фоновом потоке с низким приоритетом и с паузой
+ * {@link #PACING_MILLIS} между ними, чтобы не нагружать RZD API сверх обычного. Новый запрос
+ * вытесняет еще не выполненные старые: нужны дни рядом с тем, что пользователь смотрит сейчас.
+ * Если пользователь открывает день, который как раз загружается, его загрузчик
+ * присоединяется к этой загрузке (см. {@link TimetableFetchCoalescer}).
+ *
+ * Один экземпляр на процесс, потокобезопасный.
+ */
+public final class TimetablePrefetcher implements Runnable {
+
+    private static final long PACING_MILLIS = 1000;
+
+    private static volatile TimetablePrefetcher instance;
+
+    @AnyThread
+    @NonNull
+    public static TimetablePrefetcher getInstance(@NonNull Context context,
+                                                  @DataSchemeVersion int version) {
+        TimetablePrefetcher prefetcher = instance;
+        if (prefetcher == null) {
+            synchronized (TimetablePrefetcher.class) {
+                prefetcher = instance;
+                if (prefetcher == null) {
+                    prefetcher = instance = new TimetablePrefetcher(context, version);
+                    final Thread thread = new Thread(prefetcher, "TimetablePrefetcher");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+            }
+        }
+        return prefetcher;
+    }
+
+    @NonNull
+    private final TimetableCache cache;
+    @NonNull
+    private final TimetableFetcher fetcher;
+
+    private final BlockingDeque<TimetableRequest> queue = new LinkedBlockingDeque<>();
+
+    private TimetablePrefetcher(@NonNull Context context, @DataSchemeVersion int version) {
+        cache = new TimetableCache(context, version);
+        fetcher = new TimetableFetcher(context, cache);
+    }
+
+    /**
+     * Ставит в очередь загрузку расписания на windowDays дней до и после даты запроса,
+     * начиная с ближайших и со следующих дней. Прошедшие дни пропускаются.
+     */
+    @AnyThread
+    public void prefetchAround(@NonNull TimetableRequest request, int windowDays) {
+        final int today = TimeUtils.getMskDay(
+                TimeUtils.getCurrentTime(TimeUtils.getMskTimeZone()));
+        synchronized (queue) {
+            queue.clear();
+            for (int distance = 1; distance <= windowDays; distance++) {
+                enqueueDay(request, distance, today);
+                enqueueDay(request, -distance, today);
+            }
+        }
+    }
+
+    private void enqueueDay(@NonNull TimetableRequest request, int offsetDays, int today) {
+        final Calendar date = (Calendar) request.fromDate.clone();
+        date.add(Calendar.DAY_OF_MONTH, offsetDays);
+        if (TimeUtils.getMskDay(date) < today) {
+            return;
+        }
+        queue.add(new TimetableRequest(request.fromStationId, request.fromStationName,
+                request.toStationId, request.toStationName, date, TimeUtils.getNextDay(date)));
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            while (true) {
+                final TimetableRequest request = queue.take();
+                boolean fetched = false;
+                try {
+                    fetched = prefetch(request);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to prefetch " + request + ": " + e, e);
+                }
+                if (fetched) {
+                    Thread.sleep(PACING_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return был ли запрос к API.
+     */
+    @WorkerThread
+    private boolean prefetch(@NonNull TimetableRequest request) throws InterruptedException {
+        try {
+            cache.get(request.fromStationId, request.toStationId, request.fromDate);
+            return false;
+        } catch (FileNotFoundException e) {
+            // Нет в кэше -- загружаем
+        }
+        final LoadResult<?> result = TimetableFetchCoalescer.getInstance()
+                .fetch(fetcher, request, null, new LoadTrace());
+        Log.d(TAG, "Prefetched " + request + ": " + result.resultType);
+        return true;
+    }
+}
@@ -0,0 +1,323 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.v4.content.AsyncTaskLoader;
+import android.text.format.DateFormat;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.ifmo.droid2016.rzddemo.TimetableRow;
+import ru.ifmo.droid2016.rzddemo.cache.DataSchemeVersion;
+import ru.ifmo.droid2016.rzddemo.cache.TimetableCache;
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Загружает расписание на несколько дней подряд.
+ *
+ * Дни загружаются параллельно, не более {@link #MAX_PARALLEL_DAYS} одновременно (общий пул на
+ * все такие загрузчики); частоту запросов к серверу дополнительно ограничивает
+ * {@link ru.ifmo.droid2016.rzddemo.api.RZDApi}. Каждый загруженный день сразу попадает в кэш,
+ * а его поезда -- в промежуточный результат ({@link LoadResult#partial}).
+ *
+ * В режиме {@link RangeFetchMode#WIDE_WINDOW} недостающие дни сначала запрашиваются одним
+ * запросом с широким окном дат: дорогие установка сессии, получение RID и ожидание его
+ * готовности приходятся на все дни сразу.
+ *
+ * Результат -- строки всех загруженных дней по порядку дней, с датой отправления в каждой
+ * строке. Ошибка загрузки одного дня не отменяет остальные: результат ошибочный, только если
+ * не загрузился ни один день.
+ */
+public class TimetableRangeLoader extends AsyncTaskLoader<LoadResult<List<TimetableRow>>> {
+
+    private static final int MAX_PARALLEL_DAYS = 3;
+
+    private static final ExecutorService dayExecutor =
+            Executors.newFixedThreadPool(MAX_PARALLEL_DAYS, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(@NonNull final Runnable r) {
+                    final Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "TimetableRangeLoader #" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    @NonNull
+    private final List<TimetableRequest> dayRequests;
+
+    @RangeFetchMode
+    private final int fetchMode;
+
+    @NonNull
+    private final TimetableCache cache;
+    @NonNull
+    private final TimetableFetcher fetcher;
+
+    @NonNull
+    private final TimetableRow.Factory rowFactory;
+
+    @NonNull
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private LoadResult<List<TimetableRow>> lastResult;
+
+    /**
+     * Меняется при каждом запуске загрузки и при доставке окончательного результата, чтобы
+     * запоздавшие промежуточные результаты не доставлялись.
+     */
+    private volatile int generation;
+
+    public TimetableRangeLoader(@NonNull Context context,
+                                @NonNull String fromStationId,
+                                @NonNull String fromStationName,
+                                @NonNull String toStationId,
+                                @NonNull String toStationName,
+                                @NonNull Calendar fromDate,
+                                int days,
+                                @RangeFetchMode int fetchMode,
+                                @DataSchemeVersion int version) {
+        super(context);
+        this.fetchMode = fetchMode;
+        dayRequests = new ArrayList<>(days);
+        Calendar date = fromDate;
+        for (int i = 0; i < days; i++) {
+            final Calendar nextDate = TimeUtils.getNextDay(date);
+            dayRequests.add(new TimetableRequest(fromStationId, fromStationName, toStationId,
+                    toStationName, date, nextDate));
+            date = nextDate;
+        }
+        cache = new TimetableCache(context, version);
+        fetcher = new TimetableFetcher(context, cache);
+        rowFactory = new TimetableRow.Factory(context);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (lastResult == null) {
+            forceLoad();
+        } else if (lastResult.partial) {
+            super.deliverResult(lastResult);
+        } else {
+            deliverResult(lastResult);
+        }
+    }
+
+    @Override
+    protected void onForceLoad() {
+        generation++;
+        super.onForceLoad();
+    }
+
+    @Override
+    public void deliverResult(LoadResult<List<TimetableRow>> data) {
+        generation++;
+        lastResult = data;
+        super.deliverResult(data);
+    }
+
+    @Override
+    public LoadResult<List<TimetableRow>> loadInBackground() {
+        final int generation = this.generation;
+        if (fetchMode == RangeFetchMode.WIDE_WINDOW) {
+            fetchMissingDaysWindow();
+        }
+
+        final CompletionService<DayResult> completionService =
+                new ExecutorCompletionService<>(dayExecutor);
+        final List<Future<DayResult>> futures = new ArrayList<>(dayRequests.size());
+        for (final TimetableRequest request : dayRequests) {
+            futures.add(completionService.submit(new Callable<DayResult>() {
+                @Override
+                public DayResult call() throws Exception {
+                    return new DayResult(request, loadDay(request));
+                }
+            }));
+        }
+
+        // Строки загруженных дней по дням (ключ -- день по МСК): SparseArray хранит ключи
+        // по возрастанию, поэтому дни идут по порядку
+        final SparseArray<List<TimetableRow>> dayRows = new SparseArray<>(dayRequests.size());
+        ResultType errorType = null;
+        try {
+            for (int i = 0; i < dayRequests.size(); i++) {
+                final DayResult dayResult = completionService.take().get();
+                final LoadResult<List<TimetableEntry>> result = dayResult.result;
+                if (result.resultType != ResultType.OK || result.data == null) {
+                    Log.d(TAG, "Failed to load " + dayResult.request + ": "
+                            + result.resultType);
+                    if (errorType != ResultType.NO_INTERNET) {
+                        errorType = result.resultType;
+                    }
+                    continue;
+                }
+                dayRows.put(TimeUtils.getMskDay(dayResult.request.fromDate),
+                        rowFactory.create(result.data, formatDay(dayResult.request.fromDate)));
+                if (i < dayRequests.size() - 1) {
+                    postPartialResult(generation, concat(dayRows));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelAll(futures);
+            return new LoadResult<>(ResultType.ERROR, null);
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to load timetable range: " + e, e);
+            cancelAll(futures);
+            return new LoadResult<>(ResultType.ERROR, null);
+        }
+        if (dayRows.size() == 0 && errorType != null) {
+            return new LoadResult<>(errorType, null);
+        }
+        return new LoadResult<>(ResultType.OK, concat(dayRows));
+    }
+
+    /**
+     * Загружает в кэш одним запросом интервал от первого до последнего недостающего дня.
+     * Что не загрузится, будет потом загружено по дням. Пока запрос идет, загрузки этих дней
+     * (в том числе из других загрузчиков) дожидаются его, а не запрашивают их отдельно.
+     */
+    @WorkerThread
+    private void fetchMissingDaysWindow() {
+        TimetableRequest first = null;
+        TimetableRequest last = null;
+        for (TimetableRequest request : dayRequests) {
+            if (loadFromCache(request) == null) {
+                if (first == null) {
+                    first = request;
+                }
+                last = request;
+            }
+        }
+        if (first == null || first == last) {
+            return;
+        }
+        final TimetableRequest window = new TimetableRequest(first.fromStationId,
+                first.fromStationName, first.toStationId, first.toStationName,
+                first.fromDate, last.toDate);
+        final LoadTrace trace = new LoadTrace();
+        final long startTime = LoadTrace.now();
+        final LoadResult<?> result =
+                TimetableFetchCoalescer.getInstance().fetchWindow(fetcher, window, trace);
+        trace.end(LoadStage.TOTAL, startTime);
+        LoadTimings.getInstance().record(trace);
+        Log.d(TAG, "Window fetch " + window + ": " + result.resultType + ", " + trace);
+    }
+
+    @WorkerThread
+    @NonNull
+    private LoadResult<List<TimetableEntry>> loadDay(@NonNull TimetableRequest request)
+            throws InterruptedException {
+        final List<TimetableEntry> cached = loadFromCache(request);
+        if (cached != null) {
+            return new LoadResult<>(ResultType.OK, cached);
+        }
+        final LoadTrace trace = new LoadTrace();
+        final long startTime = LoadTrace.now();
+        final LoadResult<List<TimetableEntry>> result =
+                TimetableFetchCoalescer.getInstance().fetch(fetcher, request, null, trace);
+        trace.end(LoadStage.TOTAL, startTime);
+        LoadTimings.getInstance().record(trace);
+        return result;
+    }
+
+    @Nullable
+    private List<TimetableEntry> loadFromCache(@NonNull TimetableRequest request) {
+        try {
+            return cache.get(request.fromStationId, request.toStationId, request.fromDate);
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "Cache miss: " + e);
+        }
+        return null;
+    }
+
+    @NonNull
+    private static String formatDay(@NonNull Calendar date) {
+        return DateFormat.format("dd.MM", date).toString();
+    }
+
+    @NonNull
+    private static List<TimetableRow> concat(@NonNull SparseArray<List<TimetableRow>> dayRows) {
+        int size = 0;
+        for (int i = 0; i < dayRows.size(); i++) {
+            size += dayRows.valueAt(i).size();
+        }
+        final List<TimetableRow> rows = new ArrayList<>(size);
+        for (int i = 0; i < dayRows.size(); i++) {
+            rows.addAll(dayRows.valueAt(i));
+        }
+        return rows;
+    }
+
+    private void postPartialResult(final int generation,
+                                   @NonNull final List<TimetableRow> rows) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliverPartialResult(generation, new LoadResult<>(ResultType.OK, rows, true));
+            }
+        });
+    }
+
+    @MainThread
+    private void deliverPartialResult(int generation,
+                                      @NonNull LoadResult<List<TimetableRow>> data) {
+        if (generation == this.generation && isStarted()) {
+            lastResult = data;
+            super.deliverResult(data);
+        }
+    }
+
+    /**
+     * Отменяет еще не начатые дни. Начатые не прерываются: к их загрузке могли
+     * присоединиться другие загрузчики.
+     */
+    private static void cancelAll(@NonNull List<Future<DayResult>> futures) {
+        for (Future<DayResult> future : futures) {
+            future.cancel(false);
+        }
+    }
+
+    private static final class DayResult {
+        @NonNull
+        final TimetableRequest request;
+        @NonNull
+        final LoadResult<List<TimetableEntry>> result;
+
+        DayResult(@NonNull TimetableRequest request,
+                  @NonNull LoadResult<List<TimetableEntry>> result) {
+            this.request = request;
+            this.result = result;
+        }
+    }
+}
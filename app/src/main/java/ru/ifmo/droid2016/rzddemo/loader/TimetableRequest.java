@@ -0,0 +1,58 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.support.annotation.NonNull;
+
+import java.util.Calendar;
+
+import ru.ifmo.droid2016.rzddemo.cache.RouteDayKey;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.LOG_DATE_FORMAT;
+
+/**
+ * Параметры запроса расписания: маршрут и интервал дат отправления.
+ */
+public final class TimetableRequest {
+
+    @NonNull
+    public final String fromStationId;
+    @NonNull
+    public final String fromStationName;
+    @NonNull
+    public final String toStationId;
+    @NonNull
+    public final String toStationName;
+    @NonNull
+    public final Calendar fromDate;
+    @NonNull
+    public final Calendar toDate;
+
+    public TimetableRequest(@NonNull String fromStationId,
+                            @NonNull String fromStationName,
+                            @NonNull String toStationId,
+                            @NonNull String toStationName,
+                            @NonNull Calendar fromDate,
+                            @NonNull Calendar toDate) {
+        this.fromStationId = fromStationId;
+        this.fromStationName = fromStationName;
+        this.toStationId = toStationId;
+        this.toStationName = toStationName;
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+    }
+
+    /**
+     * @return ключ маршрута-дня, под которым результат запроса хранится в кэше.
+     */
+    @NonNull
+    public RouteDayKey getKey() {
+        return new RouteDayKey(fromStationId, toStationId, fromDate);
+    }
+
+    @Override
+    public String toString() {
+        return "TimetableRequest(fromStationId=" + fromStationId
+                + ", toStationId=" + toStationId
+                + ", date=" + LOG_DATE_FORMAT.format(fromDate.getTime())
+                + ")";
+    }
+}
@@ -0,0 +1,110 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.AsyncTaskLoader;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.util.Calendar;
+import java.util.List;
+
+import ru.ifmo.droid2016.rzddemo.cache.DataSchemeVersion;
+import ru.ifmo.droid2016.rzddemo.cache.TimetableCache;
+import ru.ifmo.droid2016.rzddemo.model.RoundTripTimetable;
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Загружает расписание туда и обратно.
+ *
+ * Если в кэше нет хотя бы одного направления, оба загружаются одним запросом к RZD API
+ * и оба сохраняются в кэш (см. {@link TimetableFetcher#fetchRoundTrip}).
+ */
+public class TimetableRoundTripLoader extends AsyncTaskLoader<LoadResult<RoundTripTimetable>> {
+
+    @NonNull
+    private final TimetableRequest request;
+    @NonNull
+    private final Calendar returnDate;
+
+    @NonNull
+    private final TimetableCache cache;
+    @NonNull
+    private final TimetableFetcher fetcher;
+
+    private LoadResult<RoundTripTimetable> lastResult;
+
+    public TimetableRoundTripLoader(@NonNull Context context,
+                                    @NonNull String fromStationId,
+                                    @NonNull String fromStationName,
+                                    @NonNull String toStationId,
+                                    @NonNull String toStationName,
+                                    @NonNull Calendar departureDate,
+                                    @NonNull Calendar returnDate,
+                                    @DataSchemeVersion int version) {
+        super(context);
+        request = new TimetableRequest(fromStationId, fromStationName, toStationId,
+                toStationName, departureDate, TimeUtils.getNextDay(departureDate));
+        this.returnDate = returnDate;
+        cache = new TimetableCache(context, version);
+        fetcher = new TimetableFetcher(context, cache);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (lastResult == null) {
+            forceLoad();
+        } else {
+            deliverResult(lastResult);
+        }
+    }
+
+    @Override
+    public void deliverResult(LoadResult<RoundTripTimetable> data) {
+        lastResult = data;
+        super.deliverResult(data);
+    }
+
+    @Override
+    public LoadResult<RoundTripTimetable> loadInBackground() {
+        final LoadTrace trace = new LoadTrace();
+        final long startTime = LoadTrace.now();
+        final LoadResult<RoundTripTimetable> result = loadRoundTrip(trace);
+        trace.end(LoadStage.TOTAL, startTime);
+
+        LoadTimings.getInstance().record(trace);
+        Log.d(TAG, "Loaded round trip " + request + ": " + result.resultType + ", " + trace);
+        return new LoadResult<>(result.resultType, result.data, false, trace);
+    }
+
+    @NonNull
+    private LoadResult<RoundTripTimetable> loadRoundTrip(@NonNull LoadTrace trace) {
+        final long cacheStartTime = LoadTrace.now();
+        final List<TimetableEntry> outbound =
+                loadFromCache(request.fromStationId, request.toStationId, request.fromDate);
+        final List<TimetableEntry> inbound = outbound == null ? null
+                : loadFromCache(request.toStationId, request.fromStationId, returnDate);
+        trace.end(LoadStage.CACHE_READ, cacheStartTime);
+        if (outbound != null && inbound != null) {
+            Log.d(TAG, "Loaded round trip from cache: " + request);
+            return new LoadResult<>(ResultType.OK, new RoundTripTimetable(outbound, inbound));
+        }
+        return fetcher.fetchRoundTrip(request, returnDate, trace);
+    }
+
+    @Nullable
+    private List<TimetableEntry> loadFromCache(@NonNull String fromStationId,
+                                               @NonNull String toStationId,
+                                               @NonNull Calendar date) {
+        try {
+            return cache.get(fromStationId, toStationId, date);
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "Cache miss: " + e);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,26 @@
+package ru.ifmo.droid2016.rzddemo.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+/**
+ * Журнал модуля core, который пишет в logcat.
+ */
+public final class AndroidLogger implements Logger {
+
+    @Override
+    public void d(@NonNull String tag, @NonNull String message) {
+        Log.d(tag, message);
+    }
+
+    @Override
+    public void w(@NonNull String tag, @NonNull String message, @Nullable Throwable error) {
+        Log.w(tag, message, error);
+    }
+
+    @Override
+    public void e(@NonNull String tag, @NonNull String message, @Nullable Throwable error) {
+        Log.e(tag, message, error);
+    }
+}
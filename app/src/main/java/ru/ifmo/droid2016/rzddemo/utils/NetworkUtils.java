@@ -0,0 +1,24 @@
+package ru.ifmo.droid2016.rzddemo.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.support.annotation.NonNull;
+
+public final class NetworkUtils {
+
+    /**
+     * @return Есть ли сейчас живое соединение?
+     */
+    public static boolean isConnectionAvailable(@NonNull Context context, boolean defaultValue) {
+        final ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return defaultValue;
+        }
+        final NetworkInfo ni = connectivityManager.getActiveNetworkInfo();
+        return ni != null && ni.isConnected();
+    }
+
+    private NetworkUtils() {}
+}
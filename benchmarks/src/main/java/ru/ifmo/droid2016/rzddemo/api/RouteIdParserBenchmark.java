@@ -0,0 +1,45 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the route id response, which is done on every cold timetable load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteIdParserBenchmark {
+
+    @Param({""})
+    public String responseFile;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = responseFile.isEmpty()
+                ? RzdResponses.routeId() : RzdResponses.read(responseFile);
+    }
+
+    @Benchmark
+    public String routeIdParser() throws IOException, BadResponseException {
+        return new RouteIdParser().parse(new ByteArrayInputStream(response), RzdResponses.CHARSET);
+    }
+}
@@ -0,0 +1,158 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import android.support.annotation.NonNull;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+
+import ru.ifmo.droid2016.rzddemo.Constants;
+import ru.ifmo.droid2016.rzddemo.utils.IOUtils;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+/**
+ * Responses of the RZD API for benchmarks: synthetic ones shaped like the real service
+ * responses (including the fields the parsers skip), or responses recorded to a file.
+ */
+public final class RzdResponses {
+
+    public static final String FROM_STATION_ID = Constants.DEMO_FROM_STATION_ID;
+    public static final String TO_STATION_ID = Constants.DEMO_TO_STATION_ID;
+
+    public static final String CHARSET = "UTF-8";
+
+    private static final String[] FROM_STATIONS = {
+            "САНКТ-ПЕТЕРБУРГ-ГЛАВН.(МОСКОВСКИЙ ВОКЗАЛ)",
+            "САНКТ-ПЕТЕРБУРГ ЛАДОЖ.(ЛАДОЖСКИЙ ВОКЗАЛ)"};
+    private static final String[] TO_STATIONS = {
+            "МОСКВА ОКТЯБРЬСКАЯ (ЛЕНИНГРАДСКИЙ ВОКЗАЛ)",
+            "МОСКВА КУРСКАЯ (КУРСКИЙ ВОКЗАЛ)"};
+    private static final String[] ROUTE_STARTS = {
+            "С-ПЕТЕР-ГЛ", "С-ПЕТ-ЛАД", "МУРМАНСК", "ПЕТРОЗАВОДСК", "ХЕЛЬСИНКИ"};
+    private static final String[] ROUTE_ENDS = {
+            "МОСКВА ОКТ", "МОСКВА КУР", "БЕЛГОРОД", "НИЖНИЙ НОВГОРОД", "САМАРА"};
+    private static final String[] BRANDS = {"САПСАН", "КРАСНАЯ СТРЕЛА", "ЭКСПРЕСС", "ЛЕВ ТОЛСТОЙ"};
+    private static final String[] CAR_TYPES = {"Сидячий", "Плацкартный", "Купе", "Люкс"};
+
+    /**
+     * Trains per day in a synthetic timetable: a response with more trains spans several days.
+     */
+    private static final int TRAINS_PER_DAY = 100;
+
+    /**
+     * @return the response to the route id request.
+     */
+    @NonNull
+    public static byte[] routeId() {
+        return ("{\"result\":\"RID\",\"RID\":\"18325459217\",\"rid\":\"18325459217\","
+                + "\"timestamp\":\"01.12.2016 12:00:00.000\"}").getBytes(Charset.forName(CHARSET));
+    }
+
+    /**
+     * @return a synthetic timetable response with the given number of trains, starting from
+     * 01.12.2016. Always the same for the same number of trains.
+     */
+    @NonNull
+    public static byte[] timetable(int trains) {
+        final Random random = new Random(trains);
+        final Calendar firstDay = Calendar.getInstance(TimeUtils.getMskTimeZone());
+        firstDay.clear();
+        firstDay.set(2016, Calendar.DECEMBER, 1);
+
+        final StringBuilder sb = new StringBuilder(1024 + trains * 1024);
+        sb.append("{\"result\":\"OK\",\"tp\":[{\"from\":\"САНКТ-ПЕТЕРБУРГ\",\"fromCode\":")
+                .append(quote(FROM_STATION_ID))
+                .append(",\"where\":\"МОСКВА\",\"whereCode\":").append(quote(TO_STATION_ID))
+                .append(",\"date\":\"01.12.2016\",\"noSeats\":false,\"defShowTime\":\"local\",")
+                .append("\"state\":\"Trains\",\"list\":[");
+
+        for (int i = 0; i < trains; i++) {
+            final Calendar departure = (Calendar) firstDay.clone();
+            departure.add(Calendar.DAY_OF_MONTH, i / TRAINS_PER_DAY);
+            departure.add(Calendar.MINUTE, (i % TRAINS_PER_DAY) * 14 + random.nextInt(10));
+            final Calendar arrival = (Calendar) departure.clone();
+            arrival.add(Calendar.MINUTE, 220 + random.nextInt(500));
+            final String number = String.format(Locale.US, "%03dА", 1 + random.nextInt(800));
+
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"number\":").append(quote(number))
+                    .append(",\"number2\":").append(quote(number))
+                    .append(",\"type\":0,\"typeEx\":0,\"depth\":89,\"new\":false,")
+                    .append("\"elReg\":true,\"deferredPayment\":false,\"varPrice\":true,")
+                    .append("\"code0\":\"2004001\",\"code1\":\"2006004\",\"bEntire\":true,");
+            if (random.nextInt(3) == 0) {
+                final String brand = pick(random, BRANDS);
+                sb.append("\"trainName\":").append(quote(brand))
+                        .append(",\"brand\":").append(quote(brand)).append(',');
+            }
+            sb.append("\"carrier\":\"ФПК\",")
+                    .append("\"route0\":").append(quote(pick(random, ROUTE_STARTS)))
+                    .append(",\"route1\":").append(quote(pick(random, ROUTE_ENDS)))
+                    .append(",\"routeCode0\":\"2004001\",\"routeCode1\":\"2006004\",")
+                    .append("\"trDate0\":").append(quote(formatDate(departure)))
+                    .append(",\"trTime0\":").append(quote(formatTime(departure)))
+                    .append(",\"station0\":").append(quote(pick(random, FROM_STATIONS)))
+                    .append(",\"station1\":").append(quote(pick(random, TO_STATIONS)))
+                    .append(",\"date0\":").append(quote(formatDate(departure)))
+                    .append(",\"time0\":").append(quote(formatTime(departure)))
+                    .append(",\"date1\":").append(quote(formatDate(arrival)))
+                    .append(",\"time1\":").append(quote(formatTime(arrival)))
+                    .append(",\"timeInWay\":\"08:00\",\"flMsk\":3,\"train_id\":0,\"cars\":[");
+            final int cars = 1 + random.nextInt(CAR_TYPES.length);
+            for (int car = 0; car < cars; car++) {
+                if (car > 0) {
+                    sb.append(',');
+                }
+                sb.append("{\"carDataType\":1,\"itype\":").append(car + 1)
+                        .append(",\"type\":").append(quote(CAR_TYPES[car]))
+                        .append(",\"typeLoc\":").append(quote(CAR_TYPES[car]))
+                        .append(",\"freeSeats\":").append(random.nextInt(300))
+                        .append(",\"pt\":").append(random.nextInt(5000))
+                        .append(",\"tariff\":").append(1000 + random.nextInt(9000))
+                        .append(",\"servCls\":\"2Э\"}");
+            }
+            sb.append("]}");
+        }
+        sb.append("]}]}");
+        return sb.toString().getBytes(Charset.forName(CHARSET));
+    }
+
+    /**
+     * @return a response recorded to a file (in {@link #CHARSET}).
+     */
+    @NonNull
+    public static byte[] read(@NonNull String path) throws IOException {
+        final InputStream in = new FileInputStream(path);
+        try {
+            return IOUtils.readToString(in, CHARSET).getBytes(Charset.forName(CHARSET));
+        } finally {
+            IOUtils.closeSilently(in);
+        }
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String quote(String value) {
+        return '"' + value + '"';
+    }
+
+    private static String formatDate(Calendar date) {
+        return String.format(Locale.US, "%02d.%02d.%04d", date.get(Calendar.DAY_OF_MONTH),
+                date.get(Calendar.MONTH) + 1, date.get(Calendar.YEAR));
+    }
+
+    private static String formatTime(Calendar time) {
+        return String.format(Locale.US, "%02d:%02d",
+                time.get(Calendar.HOUR_OF_DAY), time.get(Calendar.MINUTE));
+    }
+
+    private RzdResponses() {}
+}
@@ -0,0 +1,66 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.IOUtils;
+
+/**
+ * Reading a timetable response: the full parse, and draining or reading the same bytes
+ * without parsing as the baselines. Runs on a synthetic response with the given number of
+ * trains, or on a recorded one if responseFile is set (trains is ignored then).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimetableParserBenchmark {
+
+    @Param({"10", "500", "10000"})
+    public int trains;
+
+    @Param({""})
+    public String responseFile;
+
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = responseFile.isEmpty()
+                ? RzdResponses.timetable(trains) : RzdResponses.read(responseFile);
+    }
+
+    @Benchmark
+    public List<TimetableEntry> timetableParser() throws IOException, BadResponseException {
+        return new TimetableParser(RzdResponses.FROM_STATION_ID, RzdResponses.TO_STATION_ID)
+                .parse(new ByteArrayInputStream(response), RzdResponses.CHARSET);
+    }
+
+    @Benchmark
+    public Object nullParser() throws IOException, BadResponseException {
+        return ApiResponseParser.NULL_PARSER
+                .parse(new ByteArrayInputStream(response), RzdResponses.CHARSET);
+    }
+
+    @Benchmark
+    public String readToString() throws IOException {
+        return IOUtils.readToString(new ByteArrayInputStream(response), RzdResponses.CHARSET);
+    }
+}
@@ -0,0 +1,110 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.support.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import ru.ifmo.droid2016.rzddemo.api.RzdResponses;
+import ru.ifmo.droid2016.rzddemo.api.TimetableParser;
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+
+/**
+ * Пути чтения и записи {@link TimetableCache}, которые не зависят от SQLite: кэш в памяти и
+ * кодирование расписания в формат {@link TimetableBlobCodec}. Словарь строк -- в памяти,
+ * с такой же синхронизацией, как у закэшированной части {@link StringDictionary}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimetableCacheBenchmark {
+
+    @Param({"10", "500", "10000"})
+    public int trains;
+
+    private final RouteDayKey key =
+            new RouteDayKey(RzdResponses.FROM_STATION_ID, RzdResponses.TO_STATION_ID, 17136);
+
+    private List<TimetableEntry> timetable;
+    private byte[] blob;
+    private MemoryStringDictionary strings;
+    private TimetableMemoryCache memoryCache;
+
+    @Setup
+    public void setUp() throws Exception {
+        timetable = new TimetableParser(RzdResponses.FROM_STATION_ID, RzdResponses.TO_STATION_ID)
+                .parse(new ByteArrayInputStream(RzdResponses.timetable(trains)),
+                        RzdResponses.CHARSET);
+        strings = new MemoryStringDictionary();
+        blob = TimetableBlobCodec.encode(timetable, true, strings);
+        memoryCache = new TimetableMemoryCache(64, Long.MAX_VALUE);
+        memoryCache.put(key, timetable, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public CachedTimetable memoryGet() {
+        return memoryCache.get(key);
+    }
+
+    @Benchmark
+    public CachedTimetable memoryPut() {
+        return memoryCache.put(key, timetable, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return TimetableBlobCodec.encode(timetable, true, strings);
+    }
+
+    @Benchmark
+    public List<TimetableEntry> decode() throws TimetableBlobCodec.BadBlobException {
+        return TimetableBlobCodec.decode(blob, key.fromStationId, key.toStationId, true, strings)
+                .timetable;
+    }
+
+    private static final class MemoryStringDictionary
+            implements TimetableBlobCodec.StringIds, TimetableBlobCodec.StringValues {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        @Override
+        public synchronized int idOf(@NonNull String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        @NonNull
+        @Override
+        public synchronized String valueOf(int id) throws TimetableBlobCodec.BadBlobException {
+            if (id < 0 || id >= values.size()) {
+                throw new TimetableBlobCodec.BadBlobException("No string with id=" + id);
+            }
+            return values.get(id);
+        }
+    }
+}
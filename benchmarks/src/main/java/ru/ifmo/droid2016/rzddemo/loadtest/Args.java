@@ -0,0 +1,34 @@
+package ru.ifmo.droid2016.rzddemo.loadtest;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Аргументы командной строки вида --name=value.
+ */
+final class Args {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    Args(@NonNull String[] args) {
+        for (String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value: " + arg);
+            }
+            values.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+    }
+
+    String getString(@NonNull String name, String defaultValue) {
+        final String value = values.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    int getInt(@NonNull String name, int defaultValue) {
+        final String value = values.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,275 @@
+package ru.ifmo.droid2016.rzddemo.loadtest;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ru.ifmo.droid2016.rzddemo.Constants;
+import ru.ifmo.droid2016.rzddemo.api.ApiResponseParser;
+import ru.ifmo.droid2016.rzddemo.api.BadResponseException;
+import ru.ifmo.droid2016.rzddemo.api.RequestPacer;
+import ru.ifmo.droid2016.rzddemo.api.RidNotReadyException;
+import ru.ifmo.droid2016.rzddemo.api.RidPollScheduler;
+import ru.ifmo.droid2016.rzddemo.api.RouteIdParser;
+import ru.ifmo.droid2016.rzddemo.api.TimetableParser;
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.IOUtils;
+import ru.ifmo.droid2016.rzddemo.utils.LogUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Нагрузочный прогон против сервера с API RZD (обычно {@link StandInServer}): много
+ * одновременных загрузок расписания, каждая -- той же последовательностью запросов, что и
+ * у приложения (сессия, RID, опрос расписания), с разбором ответов парсерами из core.
+ * В конце печатает p50/p99 времени каждого этапа.
+ *
+ * Каждая загрузка получает свою сессию, как отдельное устройство, и, как RZDApi на
+ * устройстве, разносит свои запросы {@link RequestPacer} не меньше чем на --request-interval.
+ * RID опрашивается в моменты, которые выбирает {@link RidPollScheduler} (общий на прогон,
+ * оценка времени готовности учится на всех загрузках).
+ *
+ * Последовательность запросов повторена здесь, а не взята из приложения: RZDApi и
+ * загрузчики зависят от Android. Поэтому прогон НЕ покрывает:
+ * <ul>
+ * <li>общую сессию и единственный запрос сессии на процесс (RZDApi.ensureSession);</li>
+ * <li>объединение одинаковых загрузок (TimetableFetchCoalescer);</li>
+ * <li>кэши в памяти и в БД, а также Stetho.</li>
+ * </ul>
+ * Замеряются только сеть, сервер и разбор ответов. Чтобы замерить приложение целиком,
+ * соберите его с -PrzdBaseUrl, указывающим на тот же {@link StandInServer}.
+ *
+ * Параметры:
+ * <pre>
+ * --url=http://localhost:8080/timetable/public/ru адрес API
+ * --concurrency=16            число одновременных загрузок
+ * --loads=200                 всего загрузок
+ * --request-interval=250      минимальный интервал между запросами одной загрузки, мс
+ * </pre>
+ */
+public final class LoadDriver {
+
+    public static void main(String[] args) throws InterruptedException {
+        final Args parsed = new Args(args);
+        final LoadDriver driver = new LoadDriver(
+                parsed.getString("url", "http://localhost:8080" + StandInServer.DEFAULT_PATH),
+                parsed.getInt("request-interval", 250));
+        driver.run(parsed.getInt("concurrency", 16), parsed.getInt("loads", 200));
+        System.out.print(driver.formatReport());
+    }
+
+    /**
+     * Этапы загрузки, время которых замеряется.
+     */
+    enum Stage {
+        SESSION,
+        ROUTE_ID,
+        // От получения RID до начала запроса, на который пришло расписание
+        RID_WAIT,
+        TIMETABLE,
+        TOTAL
+    }
+
+    @NonNull
+    private final String baseUrl;
+    private final long requestIntervalMillis;
+
+    // Доступ под this
+    private final List<long[]> stageNanos = new ArrayList<>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private long wallNanos;
+
+    LoadDriver(@NonNull String baseUrl, long requestIntervalMillis) {
+        this.baseUrl = baseUrl;
+        this.requestIntervalMillis = requestIntervalMillis;
+    }
+
+    void run(int concurrency, int loads) throws InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < loads; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final long[] nanos = load();
+                        synchronized (LoadDriver.this) {
+                            stageNanos.add(nanos);
+                        }
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                        LogUtils.w(TAG, "Load failed: " + e);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        wallNanos = System.nanoTime() - startTime;
+    }
+
+    /**
+     * @return время каждого этапа в наносекундах, по индексам {@link Stage}.
+     */
+    @NonNull
+    private long[] load() throws IOException, BadResponseException, InterruptedException {
+        final long[] nanos = new long[Stage.values().length];
+        final RequestPacer pacer = new RequestPacer(requestIntervalMillis);
+        final long startTime = System.nanoTime();
+
+        final String cookie = requestSession(pacer);
+        final long sessionTime = System.nanoTime();
+        nanos[Stage.SESSION.ordinal()] = sessionTime - startTime;
+
+        final String routeId =
+                execute(pacer, createRouteUrl(null), cookie, new RouteIdParser());
+        final long routeIdTime = System.nanoTime();
+        nanos[Stage.ROUTE_ID.ordinal()] = routeIdTime - sessionTime;
+
+        final URL timetableUrl = createRouteUrl(routeId);
+        final TimetableParser parser = new TimetableParser(
+                Constants.DEMO_FROM_STATION_ID, Constants.DEMO_TO_STATION_ID);
+        final RidPollScheduler.Poll poll = RidPollScheduler.getInstance().startPoll();
+        while (true) {
+            poll.awaitNextPoll();
+            final long pollTime = System.nanoTime();
+            try {
+                final List<TimetableEntry> timetable =
+                        execute(pacer, timetableUrl, cookie, parser);
+                poll.onReady();
+                final long endTime = System.nanoTime();
+                nanos[Stage.RID_WAIT.ordinal()] = pollTime - routeIdTime;
+                nanos[Stage.TIMETABLE.ordinal()] = endTime - pollTime;
+                nanos[Stage.TOTAL.ordinal()] = endTime - startTime;
+                if (timetable.isEmpty()) {
+                    throw new BadResponseException("Empty timetable");
+                }
+                return nanos;
+            } catch (RidNotReadyException e) {
+                poll.onNotReady();
+            }
+        }
+    }
+
+    @NonNull
+    private String requestSession(@NonNull RequestPacer pacer)
+            throws IOException, BadResponseException, InterruptedException {
+        final URL url = new URL(baseUrl + "?STRUCTURE_ID=735&referer=1&refererPageId=704");
+        pacer.await(url.getHost());
+        final HttpURLConnection connection = openConnection(url, null);
+        try {
+            checkResponseCode(connection);
+            final String setCookie = connection.getHeaderField("Set-Cookie");
+            if (setCookie == null) {
+                throw new BadResponseException("No session cookie");
+            }
+            IOUtils.readAndCloseSilently(connection.getInputStream());
+            final int end = setCookie.indexOf(';');
+            return end < 0 ? setCookie : setCookie.substring(0, end);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private <T> T execute(@NonNull RequestPacer pacer,
+                          @NonNull URL url,
+                          @NonNull String cookie,
+                          @NonNull ApiResponseParser<T> parser)
+            throws IOException, BadResponseException, InterruptedException {
+        pacer.await(url.getHost());
+        final HttpURLConnection connection = openConnection(url, cookie);
+        InputStream in = null;
+        try {
+            checkResponseCode(connection);
+            in = connection.getInputStream();
+            return parser.parse(in, "UTF-8");
+        } finally {
+            IOUtils.closeSilently(in);
+            connection.disconnect();
+        }
+    }
+
+    @NonNull
+    private URL createRouteUrl(@Nullable String routeId) throws IOException {
+        final StringBuilder sb = new StringBuilder(baseUrl)
+                .append("?STRUCTURE_ID=735&layer_id=5371&dir=0&tfl=3&checkSeats=0")
+                .append("&st0=").append(encode(Constants.DEMO_FROM_STATION_NAME))
+                .append("&code0=").append(Constants.DEMO_FROM_STATION_ID)
+                .append("&st1=").append(encode(Constants.DEMO_TO_STATION_NAME))
+                .append("&code1=").append(Constants.DEMO_TO_STATION_ID)
+                .append("&dt0=01.12.2016&dt1=02.12.2016");
+        if (routeId != null) {
+            sb.append("&rid=").append(encode(routeId));
+        }
+        return new URL(sb.toString());
+    }
+
+    @NonNull
+    private static HttpURLConnection openConnection(@NonNull URL url, @Nullable String cookie)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Accept", "application/json, text/javascript, */*");
+        if (cookie != null) {
+            connection.setRequestProperty("Cookie", cookie);
+        }
+        return connection;
+    }
+
+    private static void checkResponseCode(@NonNull HttpURLConnection connection)
+            throws IOException, BadResponseException {
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new BadResponseException("HTTP: " + connection.getResponseCode()
+                    + ", " + connection.getResponseMessage());
+        }
+    }
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+
+    @NonNull
+    synchronized String formatReport() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(String.format("HTTP, parsing, request pacing and adaptive RID polling only:%n"
+                + "no session sharing, coalescing or caches (see LoadDriver javadoc)%n"));
+        sb.append(String.format(Locale.US, "%d loads, %d failed, %.1f s%n",
+                stageNanos.size() + failures.get(), failures.get(), wallNanos / 1e9));
+        sb.append(String.format(Locale.US, "%-10s %10s %10s %10s%n",
+                "stage", "p50, ms", "p99, ms", "max, ms"));
+        for (Stage stage : Stage.values()) {
+            final long[] sorted = new long[stageNanos.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = stageNanos.get(i)[stage.ordinal()];
+            }
+            Arrays.sort(sorted);
+            sb.append(String.format(Locale.US, "%-10s %10.1f %10.1f %10.1f%n", stage,
+                    percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6,
+                    percentile(sorted, 1) / 1e6));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return перцентиль по ближайшему рангу, 0 для пустого набора.
+     */
+    private static long percentile(@NonNull long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int rank = (int) Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
@@ -0,0 +1,228 @@
+package ru.ifmo.droid2016.rzddemo.loadtest;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.ifmo.droid2016.rzddemo.api.RzdResponses;
+
+/**
+ * Локальный сервер с тем же API, что и у RZD (в том объеме, который использует RZDApi):
+ * <ul>
+ *     <li>запрос без layer_id -- сессия: выдает новую cookie JSESSIONID;</li>
+ *     <li>запрос маршрута без rid -- выдает новый RID;</li>
+ *     <li>запрос с rid -- пока RID не "готов", снова отвечает RID, потом отдает расписание.</li>
+ * </ul>
+ * Ответы -- записанные (файлы session.html, rid.json и timetable.json в папке --responses;
+ * отсутствующие заменяются синтетическими) или синтетические с --trains поездами.
+ *
+ * Параметры:
+ * <pre>
+ * --port=8080                 порт
+ * --path=/timetable/public/ru путь API
+ * --responses=DIR             папка с записанными ответами
+ * --trains=500                число поездов в синтетическом расписании
+ * --latency=100               задержка каждого ответа, мс
+ * --latency-jitter=50         случайная добавка к задержке, от 0 до указанной, мс
+ * --rid-delay=1500            время от выдачи RID до готовности расписания, мс
+ * --rid-delay-jitter=500      случайная добавка к этому времени, мс
+ * </pre>
+ */
+public final class StandInServer {
+
+    public static void main(String[] args) throws IOException {
+        final Args parsed = new Args(args);
+        final StandInServer server = new StandInServer(parsed);
+        server.start(parsed.getInt("port", 8080), parsed.getString("path", DEFAULT_PATH));
+    }
+
+    static final String DEFAULT_PATH = "/timetable/public/ru";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] sessionResponse;
+    private final byte[] routeIdResponse;
+    private final byte[] timetableResponse;
+
+    // Если RID записан в файл, то он у всех клиентов одинаковый
+    private final boolean recordedRouteId;
+
+    private final int latencyMillis;
+    private final int latencyJitterMillis;
+    private final int ridDelayMillis;
+    private final int ridDelayJitterMillis;
+
+    // Сессия + RID -> момент готовности расписания (System.nanoTime)
+    private final Map<String, Long> routeIdReadyAt = new ConcurrentHashMap<>();
+
+    private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis());
+
+    private HttpServer httpServer;
+
+    StandInServer(@NonNull Args args) throws IOException {
+        final String responsesDir = args.getString("responses", null);
+        final byte[] recordedSession = readRecorded(responsesDir, "session.html");
+        final byte[] recordedRouteIdResponse = readRecorded(responsesDir, "rid.json");
+        final byte[] recordedTimetable = readRecorded(responsesDir, "timetable.json");
+
+        sessionResponse = recordedSession != null
+                ? recordedSession : "<html><body>RZD stand-in</body></html>".getBytes(UTF_8);
+        recordedRouteId = recordedRouteIdResponse != null;
+        routeIdResponse = recordedRouteIdResponse;
+        timetableResponse = recordedTimetable != null
+                ? recordedTimetable : RzdResponses.timetable(args.getInt("trains", 500));
+
+        latencyMillis = args.getInt("latency", 100);
+        latencyJitterMillis = args.getInt("latency-jitter", 50);
+        ridDelayMillis = args.getInt("rid-delay", 1500);
+        ridDelayJitterMillis = args.getInt("rid-delay-jitter", 500);
+    }
+
+    void start(int port, @NonNull String path) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext(path, new ApiHandler());
+        // Задержки ответов не должны выстраивать запросы в очередь
+        httpServer.setExecutor(Executors.newCachedThreadPool());
+        httpServer.start();
+        System.out.println("RZD stand-in is listening on http://localhost:"
+                + httpServer.getAddress().getPort() + path);
+    }
+
+    void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+    }
+
+    @Nullable
+    private static byte[] readRecorded(@Nullable String dir, @NonNull String name)
+            throws IOException {
+        if (dir == null) {
+            return null;
+        }
+        final File file = new File(dir, name);
+        return file.isFile() ? RzdResponses.read(file.getPath()) : null;
+    }
+
+    private final class ApiHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                final Random random = new Random();
+                Thread.sleep(latencyMillis + jitter(random, latencyJitterMillis));
+
+                final String query = exchange.getRequestURI().getRawQuery();
+                final String routeId = getQueryParameter(query, "rid");
+                if (routeId != null) {
+                    handleTimetable(exchange, routeId);
+                } else if (getQueryParameter(query, "layer_id") != null) {
+                    handleRouteId(exchange, random);
+                } else {
+                    handleSession(exchange);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void handleSession(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().add("Set-Cookie",
+                    "JSESSIONID=" + nextId.incrementAndGet() + "; Path=/");
+            send(exchange, "text/html", sessionResponse);
+        }
+
+        private void handleRouteId(HttpExchange exchange, Random random) throws IOException {
+            final String routeId;
+            final byte[] response;
+            if (recordedRouteId) {
+                response = routeIdResponse;
+                routeId = getRecordedRouteId();
+            } else {
+                routeId = String.valueOf(nextId.incrementAndGet());
+                response = createRouteIdResponse(routeId);
+            }
+            routeIdReadyAt.put(getRouteIdKey(exchange, routeId), System.nanoTime()
+                    + (ridDelayMillis + jitter(random, ridDelayJitterMillis)) * 1000000L);
+            send(exchange, "application/json", response);
+        }
+
+        private void handleTimetable(HttpExchange exchange, String routeId) throws IOException {
+            final String key = getRouteIdKey(exchange, routeId);
+            final Long readyAt = routeIdReadyAt.get(key);
+            if (readyAt != null && System.nanoTime() < readyAt) {
+                send(exchange, "application/json",
+                        recordedRouteId ? routeIdResponse : createRouteIdResponse(routeId));
+                return;
+            }
+            routeIdReadyAt.remove(key);
+            send(exchange, "application/json", timetableResponse);
+        }
+    }
+
+    @NonNull
+    private String getRecordedRouteId() {
+        final String response = new String(routeIdResponse, UTF_8);
+        final int start = response.indexOf("\"rid\":\"");
+        if (start < 0) {
+            return "";
+        }
+        final int valueStart = start + "\"rid\":\"".length();
+        return response.substring(valueStart, response.indexOf('"', valueStart));
+    }
+
+    @NonNull
+    private static byte[] createRouteIdResponse(@NonNull String routeId) {
+        return ("{\"result\":\"RID\",\"RID\":\"" + routeId + "\",\"rid\":\"" + routeId + "\"}")
+                .getBytes(UTF_8);
+    }
+
+    @NonNull
+    private static String getRouteIdKey(@NonNull HttpExchange exchange, @NonNull String routeId) {
+        return exchange.getRequestHeaders().getFirst("Cookie") + "|" + routeId;
+    }
+
+    @Nullable
+    private static String getQueryParameter(@Nullable String query, @NonNull String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            final int eq = pair.indexOf('=');
+            if (eq > 0 && name.equals(pair.substring(0, eq))) {
+                return pair.substring(eq + 1);
+            }
+        }
+        return null;
+    }
+
+    private static int jitter(@NonNull Random random, int maxMillis) {
+        return maxMillis > 0 ? random.nextInt(maxMillis + 1) : 0;
+    }
+
+    private static void send(@NonNull HttpExchange exchange,
+                             @NonNull String contentType,
+                             @NonNull byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType + "; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+}
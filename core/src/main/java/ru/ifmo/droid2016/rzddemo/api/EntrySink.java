@@ -0,0 +1,14 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Получает элементы от потокового парсера сразу после разбора каждого из них, не дожидаясь
+ * чтения всего ответа.
+ *
+ * Вызывается в потоке, который выполняет разбор.
+ */
+public interface EntrySink<E> {
+
+    void onEntry(@NonNull E entry);
+}
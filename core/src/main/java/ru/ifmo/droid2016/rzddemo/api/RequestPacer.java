@@ -0,0 +1,48 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import android.support.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Разносит начала запросов к одному хосту не меньше чем на заданный интервал, сколько бы
+ * потоков ни отправляли запросы. Очередь запросов соблюдается в порядке обращения.
+ *
+ * Потокобезопасный.
+ */
+public final class RequestPacer {
+
+    private final long minIntervalMillis;
+
+    // Доступ под this
+    private final Map<String, Long> nextSlotTime = new HashMap<>();
+
+    public RequestPacer(long minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Ждет, когда можно будет начать следующий запрос к хосту.
+     */
+    public void await(@NonNull String host) throws InterruptedException {
+        final long waitMillis;
+        synchronized (this) {
+            final long now = now();
+            final Long next = nextSlotTime.get(host);
+            final long slot = next == null ? now : Math.max(now, next);
+            nextSlotTime.put(host, slot + minIntervalMillis);
+            waitMillis = slot - now;
+        }
+        if (waitMillis > 0) {
+            Thread.sleep(waitMillis);
+        }
+    }
+
+    /**
+     * Монотонное время в миллисекундах: не зависит от перевода системных часов.
+     */
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,12 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+/**
+ * Сервер выдал ID маршрута (RID), но расписание для него еще не готово: запрос нужно
+ * повторить позже с тем же RID.
+ */
+public class RidNotReadyException extends BadResponseException {
+
+    public RidNotReadyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,152 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+
+import ru.ifmo.droid2016.rzddemo.utils.LogUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Выбирает, когда запрашивать расписание после получения ID маршрута (RID).
+ *
+ * Первый запрос делается через типичное время готовности RID, затем задержка растет, пока
+ * расписание не будет готово или не пройдет {@link #MAX_WAIT_MILLIS}. Время готовности
+ * оценивается по прошлым запросам: успех после ответа "не готово" значит, что RID стал готов
+ * где-то между двумя запросами; успех с первого запроса значит, что он мог быть готов и
+ * раньше, поэтому оценка немного уменьшается и успевает за сервером, когда тот ускоряется.
+ * Запросы, не дождавшиеся готовности, оценку не меняют.
+ *
+ * Один экземпляр на процесс, потокобезопасный.
+ */
+public final class RidPollScheduler {
+
+    static final long INITIAL_ESTIMATE_MILLIS = 1000;
+    static final long MIN_DELAY_MILLIS = 200;
+    static final long MAX_DELAY_MILLIS = 2000;
+    static final long MAX_WAIT_MILLIS = 15000;
+    static final float BACKOFF_FACTOR = 1.5f;
+    static final float FIRST_POLL_SUCCESS_FACTOR = 0.8f;
+    static final float ESTIMATE_WEIGHT = 0.25f;
+
+    private static final RidPollScheduler instance = new RidPollScheduler();
+
+    @AnyThread
+    @NonNull
+    public static RidPollScheduler getInstance() {
+        return instance;
+    }
+
+    // Доступ под this
+    private long estimateMillis = INITIAL_ESTIMATE_MILLIS;
+
+    RidPollScheduler() {}
+
+    /**
+     * Начинает опрос для только что полученного RID.
+     */
+    @AnyThread
+    @NonNull
+    public Poll startPoll() {
+        return startPoll(now());
+    }
+
+    @AnyThread
+    @NonNull
+    Poll startPoll(long nowMillis) {
+        return new Poll(nowMillis, getEstimateMillis());
+    }
+
+    @AnyThread
+    synchronized long getEstimateMillis() {
+        return estimateMillis;
+    }
+
+    private synchronized void learn(long readyMillis) {
+        estimateMillis = clamp(Math.round(
+                estimateMillis + ESTIMATE_WEIGHT * (readyMillis - estimateMillis)));
+    }
+
+    static long clamp(long delayMillis) {
+        return Math.max(MIN_DELAY_MILLIS, Math.min(MAX_DELAY_MILLIS, delayMillis));
+    }
+
+    /**
+     * Монотонное время в миллисекундах: не зависит от перевода системных часов.
+     */
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Состояние опроса одного RID. Не потокобезопасно: используется потоком, который
+     * делает запросы.
+     */
+    public final class Poll {
+
+        private final long ridTime;
+        private long nextDelayMillis;
+        private long lastPollTime = -1;
+        private long lastNotReadyMillis = -1;
+        private boolean timedOut;
+
+        private Poll(long ridTime, long firstDelayMillis) {
+            this.ridTime = ridTime;
+            this.nextDelayMillis = firstDelayMillis;
+        }
+
+        /**
+         * Ждет момента следующего запроса.
+         *
+         * @throws RidNotReadyException если RID не стал готов за {@link #MAX_WAIT_MILLIS}.
+         */
+        public void awaitNextPoll() throws InterruptedException, RidNotReadyException {
+            Thread.sleep(getNextDelayMillis(now()));
+            onPoll(now());
+        }
+
+        /**
+         * @return через сколько миллисекунд делать следующий запрос.
+         *
+         * @throws RidNotReadyException если следующий запрос выйдет за
+         *                              {@link #MAX_WAIT_MILLIS}.
+         */
+        long getNextDelayMillis(long nowMillis) throws RidNotReadyException {
+            final long elapsed = nowMillis - ridTime;
+            if (lastPollTime >= 0 && elapsed + nextDelayMillis > MAX_WAIT_MILLIS) {
+                timedOut = true;
+                throw new RidNotReadyException("RID is not ready after " + elapsed + "ms");
+            }
+            return nextDelayMillis;
+        }
+
+        void onPoll(long nowMillis) {
+            lastPollTime = nowMillis;
+        }
+
+        /**
+         * На последний запрос пришел ответ "RID не готов".
+         */
+        public void onNotReady() {
+            lastNotReadyMillis = lastPollTime - ridTime;
+            nextDelayMillis = clamp(Math.round(nextDelayMillis * BACKOFF_FACTOR));
+        }
+
+        /**
+         * На последний запрос пришло расписание.
+         */
+        public void onReady() {
+            if (timedOut || lastPollTime < 0) {
+                // Время готовности неизвестно -- оценку не трогаем
+                return;
+            }
+            final long readyMillis = lastPollTime - ridTime;
+            final long sample = lastNotReadyMillis < 0
+                    ? Math.round(readyMillis * FIRST_POLL_SUCCESS_FACTOR)
+                    : (lastNotReadyMillis + readyMillis) / 2;
+            learn(sample);
+            LogUtils.d(TAG, "RID ready after " + readyMillis + "ms, estimate: "
+                    + getEstimateMillis() + "ms");
+        }
+    }
+}
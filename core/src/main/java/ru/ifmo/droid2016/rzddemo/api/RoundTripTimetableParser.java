@@ -0,0 +1,48 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import ru.ifmo.droid2016.rzddemo.model.RoundTripTimetable;
+
+/**
+ * Разбирает ответ на запрос расписания туда и обратно (параметр dir=1): расписание туда и
+ * расписание обратно. Как элементы ответа сопоставляются направлениям, описано в
+ * {@link TimetableParser#parseRoundTrip}.
+ */
+public final class RoundTripTimetableParser implements ApiResponseParser<RoundTripTimetable> {
+
+    @NonNull
+    private final TimetableParser parser;
+
+    private final int outboundDay;
+    private final int inboundDay;
+
+    /**
+     * @param outboundDay день отправления туда по МСК, см.
+     *                    {@link ru.ifmo.droid2016.rzddemo.utils.TimeUtils#getMskDay}
+     * @param inboundDay  день отправления обратно по МСК
+     */
+    public RoundTripTimetableParser(@NonNull String departureStationId,
+                                    @NonNull String arrivalStationId,
+                                    int outboundDay,
+                                    int inboundDay) {
+        parser = new TimetableParser(departureStationId, arrivalStationId);
+        this.outboundDay = outboundDay;
+        this.inboundDay = inboundDay;
+    }
+
+    @NonNull
+    @Override
+    public RoundTripTimetable parse(InputStream in, String charset)
+            throws IOException, BadResponseException {
+        final RoundTripTimetable timetable =
+                parser.parseRoundTrip(in, charset, outboundDay, inboundDay);
+        if (timetable.inbound == null) {
+            throw new BadResponseException("No return timetable in response");
+        }
+        return timetable;
+    }
+}
@@ -0,0 +1,56 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import ru.ifmo.droid2016.rzddemo.utils.IOUtils;
+
+/**
+ * Created by dmitry.trunin on 08.11.2016.
+ */
+
+public final class RouteIdParser implements ApiResponseParser<String> {
+
+    /**
+     * Читает потоковым парсером только поля "result" и "rid". Как только оба известны,
+     * остаток ответа вычитывается как есть, без разбора на токены, чтобы соединение
+     * можно было переиспользовать.
+     */
+    public String parse(InputStream in, String charset)
+            throws IOException, BadResponseException {
+        final JsonReader reader = new JsonReader(new InputStreamReader(in, charset));
+        String result = null;
+        String rid = null;
+
+        try {
+            reader.beginObject();
+            while ((result == null || rid == null) && reader.hasNext()) {
+                final String name = reader.nextName();
+                if (name == null) {
+                    reader.skipValue();
+                    continue;
+                }
+                switch (name) {
+                    case "result": result = reader.nextString(); break;
+                    case "rid": rid = reader.nextString(); break;
+                    default: reader.skipValue(); break;
+                }
+                if (result != null && !"RID".equals(result)) {
+                    throw new BadResponseException("Unexpected result: " + result);
+                }
+            }
+        } catch (IllegalStateException e) {
+            // Так JsonReader сообщает о значении неожиданного типа
+            throw new BadResponseException("Failed to parse json", e);
+        }
+
+        if (result == null || rid == null) {
+            throw new BadResponseException("Missing result or rid: result=" + result);
+        }
+        IOUtils.readFully(in);
+        return rid;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Запрос сессии, который выполняет один поток: если его уже выполняет другой поток, остальные
+ * ждут его и берут его результат вместо отправки еще одного запроса. Ошибка запроса достается
+ * всем ждущим. Если выполнявший поток бросил запрос без результата (например, его прервали),
+ * запрос выполняет один из ждущих потоков.
+ *
+ * Потокобезопасный.
+ */
+final class SessionGate {
+
+    /**
+     * Сама сессия: проверка и запрос.
+     */
+    interface Session {
+
+        /**
+         * Вызывается под замком {@link SessionGate}.
+         */
+        boolean hasSession();
+
+        @WorkerThread
+        void requestSession() throws IOException, BadResponseException, InterruptedException;
+    }
+
+    @NonNull
+    private final Session session;
+
+    // Доступ под this
+    @Nullable
+    private SessionRequest current;
+
+    SessionGate(@NonNull Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Проверяет, что сессия есть, и при необходимости выполняет запрос сессии или дожидается
+     * уже идущего.
+     */
+    @WorkerThread
+    void ensureSession() throws IOException, BadResponseException, InterruptedException {
+        while (true) {
+            final SessionRequest request;
+            final boolean owner;
+            synchronized (this) {
+                if (session.hasSession()) {
+                    return;
+                }
+                owner = current == null;
+                if (owner) {
+                    current = new SessionRequest();
+                }
+                request = current;
+            }
+
+            if (!owner) {
+                if (request.await()) {
+                    return;
+                }
+                continue;
+            }
+
+            boolean success = false;
+            Exception error = null;
+            try {
+                session.requestSession();
+                success = true;
+                return;
+            } catch (IOException | BadResponseException | RuntimeException e) {
+                error = e;
+                throw e;
+            } finally {
+                synchronized (this) {
+                    current = null;
+                }
+                // В том числе при InterruptedException и Error: ждущие потоки не должны
+                // принять незавершенный запрос за успешный
+                request.complete(success, error);
+            }
+        }
+    }
+
+    /**
+     * Запрос сессии, который выполняет один поток, а остальные ждут.
+     */
+    private static final class SessionRequest {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean success;
+        private volatile Exception error;
+
+        /**
+         * @param success завершился ли запрос; если нет, error -- его ошибка или null, если
+         *                запрос брошен (например, поток прервали).
+         */
+        void complete(boolean success, @Nullable Exception error) {
+            this.success = success;
+            this.error = error;
+            done.countDown();
+        }
+
+        /**
+         * @return true, если запрос завершился, false, если он брошен и его нужно
+         * выполнить заново.
+         */
+        boolean await() throws IOException, BadResponseException, InterruptedException {
+            done.await();
+            final Exception error = this.error;
+            if (error instanceof IOException) {
+                throw new IOException("Session request failed: " + error, error);
+            } else if (error != null) {
+                throw new BadResponseException("Session request failed: " + error, error);
+            }
+            return success;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.ifmo.droid2016.rzddemo.model.RoundTripTimetable;
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.LogUtils;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+/**
+ * Разбирает ответ с помощью {@link JsonReader} прямо из потока. Если задан {@link EntrySink},
+ * каждый элемент передается в него сразу после разбора, чтобы первые поезда можно было
+ * показать, пока остаток ответа еще загружается. Элементы, переданные в sink, еще не сверены
+ * с полем "result": окончательный результат -- только возвращаемый список.
+ *
+ * Created by dmitry.trunin on 08.11.2016.
+ */
+
+public class TimetableParser implements ApiResponseParser<List<TimetableEntry>> {
+
+    private static final int OUTBOUND = 0;
+    private static final int INBOUND = 1;
+
+    @NonNull
+    private final String departureStationId;
+    @NonNull
+    private final String arrivalStationId;
+    @Nullable
+    private final EntrySink<TimetableEntry> sink;
+
+    public TimetableParser(@NonNull String departureStationId,
+                           @NonNull String arrivalStationId) {
+        this(departureStationId, arrivalStationId, null);
+    }
+
+    public TimetableParser(@NonNull String departureStationId,
+                           @NonNull String arrivalStationId,
+                           @Nullable EntrySink<TimetableEntry> sink) {
+        this.departureStationId = departureStationId;
+        this.arrivalStationId = arrivalStationId;
+        this.sink = sink;
+    }
+
+    @Override
+    @NonNull
+    public List<TimetableEntry> parse(InputStream in, String charset)
+            throws IOException, BadResponseException {
+        return parseRoundTrip(in, charset, TimeUtils.INVALID_DAY, TimeUtils.INVALID_DAY)
+                .outbound;
+    }
+
+    /**
+     * Разбирает все элементы "tp" ответа: расписание туда и, если оно есть в ответе, обратно.
+     * В {@link EntrySink} передаются только поезда туда.
+     *
+     * Направление элемента определяется по его дате ("date"), если она прочитана до списка
+     * поездов и совпадает ровно с одним из дней outboundDay и inboundDay, а иначе -- по
+     * порядку элементов: сервер отдает сначала туда, потом обратно. Коды станций элемента
+     * для этого не подходят: сервер может вернуть код вокзала вместо запрошенного кода города.
+     *
+     * @param outboundDay день отправления туда по МСК (см. {@link TimeUtils#getMskDay})
+     *                    или {@link TimeUtils#INVALID_DAY}, если неизвестен.
+     * @param inboundDay  день отправления обратно или {@link TimeUtils#INVALID_DAY}.
+     */
+    @NonNull
+    RoundTripTimetable parseRoundTrip(InputStream in, String charset,
+                                      int outboundDay, int inboundDay)
+            throws IOException, BadResponseException {
+        final JsonReader reader = new JsonReader(new InputStreamReader(in, charset));
+        return parseResponse(reader, outboundDay, inboundDay);
+    }
+
+    @NonNull
+    private RoundTripTimetable parseResponse(JsonReader reader, int outboundDay, int inboundDay)
+            throws IOException, BadResponseException {
+        String result = null;
+        final List<List<TimetableEntry>> directions = new ArrayList<>(2);
+        directions.add(null);
+        directions.add(null);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (name == null) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "result": result = reader.nextString(); break;
+                case "tp": parseTp(reader, directions, outboundDay, inboundDay); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+
+        if ("RID".equals(result)) {
+            throw new RidNotReadyException("Timetable is not ready yet");
+        }
+        if (!"OK".equals(result)) {
+            throw new BadResponseException("Result is not OK: " + result);
+        }
+        final List<TimetableEntry> outbound = directions.get(OUTBOUND);
+        if (outbound == null) {
+            throw new BadResponseException("Empty result");
+        }
+        return new RoundTripTimetable(outbound, directions.get(INBOUND));
+    }
+
+    private void parseTp(JsonReader reader,
+                         List<List<TimetableEntry>> directions,
+                         int outboundDay,
+                         int inboundDay)
+            throws IOException, BadResponseException {
+        reader.beginArray();
+        for (int index = 0; reader.hasNext(); index++) {
+            parseTpElement(reader, directions, index, outboundDay, inboundDay);
+        }
+        reader.endArray();
+    }
+
+    private void parseTpElement(JsonReader reader,
+                                List<List<TimetableEntry>> directions,
+                                int index,
+                                int outboundDay,
+                                int inboundDay)
+            throws IOException, BadResponseException {
+        int day = TimeUtils.INVALID_DAY;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (name == null) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "date": day = TimeUtils.parseDay(reader.nextString()); break;
+                case "list": {
+                    final int direction = getDirection(day, index, outboundDay, inboundDay);
+                    if (direction < 0 || directions.get(direction) != null) {
+                        reader.skipValue();
+                    } else {
+                        directions.set(direction, parseList(reader, direction));
+                    }
+                    break;
+                }
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * @return {@link #OUTBOUND}, {@link #INBOUND} или -1 для лишнего элемента.
+     */
+    private static int getDirection(int day, int index, int outboundDay, int inboundDay) {
+        if (day != TimeUtils.INVALID_DAY && outboundDay != inboundDay) {
+            if (day == outboundDay) {
+                return OUTBOUND;
+            }
+            if (day == inboundDay) {
+                return INBOUND;
+            }
+        }
+        return index <= INBOUND ? index : -1;
+    }
+
+    @NonNull
+    private List<TimetableEntry> parseList(JsonReader reader, int direction)
+            throws IOException, BadResponseException {
+        final boolean outbound = direction == OUTBOUND;
+        final String fromStationId = outbound ? departureStationId : arrivalStationId;
+        final String toStationId = outbound ? arrivalStationId : departureStationId;
+        List<TimetableEntry> timetable = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            TimetableEntry timetableEntry =
+                    parseTimetableEntry(reader, fromStationId, toStationId);
+            if (timetableEntry != null) {
+                timetable.add(timetableEntry);
+                if (outbound && sink != null) {
+                    sink.onEntry(timetableEntry);
+                }
+            }
+        }
+        reader.endArray();
+        return timetable;
+    }
+
+    @Nullable
+    private TimetableEntry parseTimetableEntry(JsonReader reader,
+                                               String fromStationId,
+                                               String toStationId)
+            throws IOException, BadResponseException {
+        String departureStationName = null;
+        int departureTime;
+        String arrivalStationName = null;
+        int arrivalTime;
+        String trainRouteId = null;
+        String trainName = null;
+        String routeStartStationName = null;
+        String routeEndStationName = null;
+
+        // Components of departure/arrival times
+        String date0 = null;
+        String date1 = null;
+        String time0 = null;
+        String time1 = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            if (name == null) {
+                reader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "station0": departureStationName = reader.nextString(); break;
+                case "station1": arrivalStationName = reader.nextString(); break;
+                case "route0": routeStartStationName = reader.nextString(); break;
+                case "route1": routeEndStationName = reader.nextString(); break;
+                case "number": trainRouteId = reader.nextString(); break;
+                case "brand": trainName = reader.nextString(); break;
+                case "date0": date0 = reader.nextString(); break;
+                case "date1": date1 = reader.nextString(); break;
+                case "time0": time0 = reader.nextString(); break;
+                case "time1": time1 = reader.nextString(); break;
+                default: reader.skipValue(); break;
+            }
+        }
+        reader.endObject();
+
+        if (isAnyEmpty(departureStationName, arrivalStationName, trainRouteId,
+                routeStartStationName, routeEndStationName, date0, date1, time0, time1)) {
+            return null;
+        }
+        departureTime = parseMskTime(date0, time0);
+        arrivalTime = parseMskTime(date1, time1);
+        if (departureTime < 0 || arrivalTime < 0) {
+            return null;
+        }
+
+        return new TimetableEntry(fromStationId, departureStationName, departureTime,
+                toStationId, arrivalStationName, arrivalTime, trainRouteId, trainName,
+                routeStartStationName, routeEndStationName);
+    }
+
+    /**
+     * Разбивает расписание по дням отправления по МСК (см. {@link TimeUtils#getMskDay}),
+     * сохраняя порядок внутри дня. Нужно, когда ответ охватывает несколько дней.
+     */
+    @NonNull
+    public static Map<Integer, List<TimetableEntry>> splitByMskDay(
+            @NonNull List<TimetableEntry> timetable) {
+        final Map<Integer, List<TimetableEntry>> days = new HashMap<>();
+        for (TimetableEntry entry : timetable) {
+            final int day = TimeUtils.getMskDay(
+                    entry.departureTimeMinutes * TimeUtils.MINUTE_MILLIS);
+            List<TimetableEntry> dayTimetable = days.get(day);
+            if (dayTimetable == null) {
+                dayTimetable = new ArrayList<>();
+                days.put(day, dayTimetable);
+            }
+            dayTimetable.add(entry);
+        }
+        return days;
+    }
+
+    private static boolean isAnyEmpty(String ... vals) {
+        if (vals == null) {
+            return false;
+        }
+        for (String val : vals) {
+            if (val == null || val.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return время в минутах с 01.01.1970 или -1, если не удалось разобрать.
+     */
+    private static int parseMskTime(String date, String time) {
+        final int day = TimeUtils.parseDay(date);
+        final int minuteOfDay = TimeUtils.parseMinuteOfDay(time);
+        if (day == TimeUtils.INVALID_DAY || minuteOfDay < 0) {
+            LogUtils.e(TAG, "Failed to parse date=\"" + date + "\", time=\"" + time + "\"");
+            return -1;
+        }
+        final long millis = TimeUtils.getMskTimeMillis(day, minuteOfDay);
+        return (int) (millis / TimeUtils.MINUTE_MILLIS);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+
+/**
+ * Расписание из кэша вместе со временем, когда оно было записано.
+ */
+public final class CachedTimetable {
+
+    /**
+     * Неизменяемый список поездов.
+     */
+    @NonNull
+    public final List<TimetableEntry> timetable;
+
+    /**
+     * Время записи в кэш (System.currentTimeMillis()) или 0, если данные нужно обновить --
+     * например, записанные в версии {@link DataSchemeVersion#V1} и прочитанные в
+     * {@link DataSchemeVersion#V2}, где в них не хватает названий поездов.
+     */
+    public final long updatedAtMillis;
+
+    CachedTimetable(@NonNull List<TimetableEntry> timetable, long updatedAtMillis) {
+        this.timetable = timetable;
+        this.updatedAtMillis = updatedAtMillis;
+    }
+
+    /**
+     * @return сколько миллисекунд прошло с записи в кэш. Если время записи неизвестно --
+     * заведомо больше любого срока жизни, чтобы такие данные обновлялись.
+     */
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - updatedAtMillis;
+    }
+}
@@ -0,0 +1,66 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.support.annotation.NonNull;
+
+import java.util.Calendar;
+
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+/**
+ * Ключ кэша расписаний: ID станции отправления, ID станции прибытия и дата отправления --
+ * порядковый номер дня в московском часовом поясе (см. {@link TimeUtils#getMskDay}).
+ */
+public final class RouteDayKey {
+
+    @NonNull
+    public final String fromStationId;
+
+    @NonNull
+    public final String toStationId;
+
+    public final int dayMsk;
+
+    public RouteDayKey(@NonNull String fromStationId,
+                       @NonNull String toStationId,
+                       int dayMsk) {
+        this.fromStationId = fromStationId;
+        this.toStationId = toStationId;
+        this.dayMsk = dayMsk;
+    }
+
+    public RouteDayKey(@NonNull String fromStationId,
+                       @NonNull String toStationId,
+                       @NonNull Calendar dateMsk) {
+        this(fromStationId, toStationId, TimeUtils.getMskDay(dateMsk));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RouteDayKey)) {
+            return false;
+        }
+        final RouteDayKey other = (RouteDayKey) o;
+        return dayMsk == other.dayMsk
+                && fromStationId.equals(other.fromStationId)
+                && toStationId.equals(other.toStationId);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = fromStationId.hashCode();
+        result = 31 * result + toStationId.hashCode();
+        result = 31 * result + dayMsk;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "RouteDayKey(fromStationId=" + fromStationId
+                + ", toStationId=" + toStationId
+                + ", dayMsk=" + dayMsk
+                + ")";
+    }
+}
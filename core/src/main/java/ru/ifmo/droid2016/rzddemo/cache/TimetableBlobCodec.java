@@ -0,0 +1,278 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+
+/**
+ * Компактный бинарный формат расписания одного маршрута-дня.
+ *
+ * Строки (названия станций, номера и названия поездов) хранятся в общем словаре и
+ * записываются индексами, время -- в минутах. Все числа кодируются как varint, поэтому
+ * большинство полей поезда занимает по одному байту:
+ * <pre>
+ * byte    версия формата
+ * byte    флаги ({@link #FLAG_TRAIN_NAMES})
+ * varint  число поездов
+ * varint  время отправления первого поезда, минуты с 01.01.1970
+ * для каждого поезда:
+ *   zigzag  разность времени отправления с предыдущим поездом, минуты
+ *   zigzag  время в пути, минуты
+ *   varint  индексы строк: станция отправления, станция прибытия, номер поезда,
+ *           начальная и конечная станции маршрута
+ *   varint  индекс названия поезда + 1 или 0, если названия нет (только с FLAG_TRAIN_NAMES)
+ * </pre>
+ * ID станций отправления и прибытия не хранятся -- они входят в ключ кэша.
+ */
+final class TimetableBlobCodec {
+
+    static final int FORMAT_VERSION = 1;
+
+    /**
+     * В данных есть названия поездов.
+     */
+    static final int FLAG_TRAIN_NAMES = 1;
+
+    /**
+     * Число обязательных строк у каждого поезда, без названия поезда.
+     */
+    private static final int STRINGS_PER_ENTRY = 5;
+
+    /**
+     * Словарь строк для записи: выдает индекс строки, при необходимости добавляя ее.
+     */
+    interface StringIds {
+        int idOf(@NonNull String value);
+    }
+
+    /**
+     * Словарь строк для чтения.
+     */
+    interface StringValues {
+        @NonNull
+        String valueOf(int id) throws BadBlobException;
+    }
+
+    /**
+     * Результат чтения расписания.
+     */
+    static final class Decoded {
+        @NonNull
+        final List<TimetableEntry> timetable;
+
+        /**
+         * Были ли в данных названия поездов. Данные, записанные в версии
+         * {@link DataSchemeVersion#V1}, их не содержат.
+         */
+        final boolean hasTrainNames;
+
+        Decoded(@NonNull List<TimetableEntry> timetable, boolean hasTrainNames) {
+            this.timetable = timetable;
+            this.hasTrainNames = hasTrainNames;
+        }
+    }
+
+    static class BadBlobException extends Exception {
+        BadBlobException(String message) {
+            super(message);
+        }
+    }
+
+    @NonNull
+    static byte[] encode(@NonNull List<TimetableEntry> timetable,
+                         boolean withTrainNames,
+                         @NonNull StringIds strings) {
+        final Writer out = new Writer(8 + timetable.size() * 10);
+        out.writeByte(FORMAT_VERSION);
+        out.writeByte(withTrainNames ? FLAG_TRAIN_NAMES : 0);
+        out.writeVarint(timetable.size());
+        long previousDeparture = timetable.isEmpty()
+                ? 0 : timetable.get(0).departureTimeMinutes;
+        out.writeVarLong(previousDeparture);
+
+        for (int i = 0; i < timetable.size(); i++) {
+            final TimetableEntry entry = timetable.get(i);
+            final long departure = entry.departureTimeMinutes;
+            final long arrival = entry.arrivalTimeMinutes;
+            out.writeZigzag(departure - previousDeparture);
+            out.writeZigzag(arrival - departure);
+            previousDeparture = departure;
+
+            out.writeVarint(strings.idOf(entry.departureStationName));
+            out.writeVarint(strings.idOf(entry.arrivalStationName));
+            out.writeVarint(strings.idOf(entry.trainRouteId));
+            out.writeVarint(strings.idOf(entry.routeStartStationName));
+            out.writeVarint(strings.idOf(entry.routeEndStationName));
+            if (withTrainNames) {
+                out.writeVarint(entry.trainName == null ? 0 : strings.idOf(entry.trainName) + 1);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param withTrainNames читать ли названия поездов, если они есть в данных
+     */
+    @NonNull
+    static Decoded decode(@NonNull byte[] data,
+                          @NonNull String fromStationId,
+                          @NonNull String toStationId,
+                          boolean withTrainNames,
+                          @NonNull StringValues strings) throws BadBlobException {
+        final Reader in = new Reader(data);
+        final int formatVersion = in.readByte();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new BadBlobException("Unsupported format version: " + formatVersion);
+        }
+        final int flags = in.readByte();
+        final boolean hasTrainNames = (flags & FLAG_TRAIN_NAMES) != 0;
+        final int count = in.readVarint();
+        long departure = in.readVarLong();
+
+        final List<TimetableEntry> timetable = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            departure += in.readZigzag();
+            final long arrival = departure + in.readZigzag();
+            final String departureStationName = strings.valueOf(in.readVarint());
+            final String arrivalStationName = strings.valueOf(in.readVarint());
+            final String trainRouteId = strings.valueOf(in.readVarint());
+            final String routeStartStationName = strings.valueOf(in.readVarint());
+            final String routeEndStationName = strings.valueOf(in.readVarint());
+            String trainName = null;
+            if (hasTrainNames) {
+                final int trainNameId = in.readVarint();
+                if (withTrainNames && trainNameId > 0) {
+                    trainName = strings.valueOf(trainNameId - 1);
+                }
+            }
+            timetable.add(new TimetableEntry(
+                    fromStationId, departureStationName, (int) departure,
+                    toStationId, arrivalStationName, (int) arrival,
+                    trainRouteId, trainName, routeStartStationName, routeEndStationName));
+        }
+        return new Decoded(timetable, hasTrainNames);
+    }
+
+    /**
+     * Добавляет в ids индексы всех строк, на которые ссылаются данные, в том числе названий
+     * поездов. Строки при этом не читаются -- так их можно загрузить из словаря заранее
+     * одним запросом.
+     */
+    static void readStringIds(@NonNull byte[] data, @NonNull Collection<Integer> ids)
+            throws BadBlobException {
+        final Reader in = new Reader(data);
+        final int formatVersion = in.readByte();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new BadBlobException("Unsupported format version: " + formatVersion);
+        }
+        final boolean hasTrainNames = (in.readByte() & FLAG_TRAIN_NAMES) != 0;
+        final int count = in.readVarint();
+        in.readVarLong();
+        for (int i = 0; i < count; i++) {
+            in.readZigzag();
+            in.readZigzag();
+            for (int j = 0; j < STRINGS_PER_ENTRY; j++) {
+                ids.add(in.readVarint());
+            }
+            if (hasTrainNames) {
+                final int trainNameId = in.readVarint();
+                if (trainNameId > 0) {
+                    ids.add(trainNameId - 1);
+                }
+            }
+        }
+    }
+
+    private static final class Writer {
+        private byte[] buffer;
+        private int size;
+
+        Writer(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeVarint(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeZigzag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                final byte[] newBuffer = new byte[Math.max(buffer.length * 2, size + extra)];
+                System.arraycopy(buffer, 0, newBuffer, 0, size);
+                buffer = newBuffer;
+            }
+        }
+
+        @NonNull
+        byte[] toByteArray() {
+            final byte[] result = new byte[size];
+            System.arraycopy(buffer, 0, result, 0, size);
+            return result;
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() throws BadBlobException {
+            if (position >= data.length) {
+                throw new BadBlobException("Unexpected end of data at " + position);
+            }
+            return data[position++] & 0xFF;
+        }
+
+        int readVarint() throws BadBlobException {
+            final long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new BadBlobException("Varint out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        long readZigzag() throws BadBlobException {
+            final long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        long readVarLong() throws BadBlobException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new BadBlobException("Malformed varint at " + position);
+        }
+    }
+
+    private TimetableBlobCodec() {}
+}
@@ -0,0 +1,56 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+/**
+ * Сроки жизни и ограничения размера кэша расписаний.
+ *
+ * Чем ближе дата, тем быстрее меняется расписание на нее (отмены, дополнительные поезда),
+ * поэтому расписание на сегодня живет меньше всего.
+ */
+final class TimetableCachePolicy {
+
+    private static final long HOUR_MILLIS = 3600 * 1000;
+
+    static final long TODAY_TTL_MILLIS = 2 * HOUR_MILLIS;
+    static final long NEAR_TTL_MILLIS = 12 * HOUR_MILLIS;
+    static final long FAR_TTL_MILLIS = 48 * HOUR_MILLIS;
+
+    /**
+     * До скольки дней вперед дата считается близкой.
+     */
+    static final int NEAR_DAYS = 7;
+
+    /**
+     * Ограничение суммарного размера данных в БД, см. {@link TimetableEvictor}.
+     */
+    static final long MAX_DB_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * @return true, если расписание на день dayMsk, записанное в updatedAtMillis, устарело
+     * настолько, что его нельзя отдавать.
+     *
+     * Расписание с неизвестным временем записи (записанное в другой версии модели данных) не
+     * отбрасывается: иначе после смены версии все маршруты разом пошли бы в сеть. Его
+     * возраст ({@link CachedTimetable#getAgeMillis}) заведомо больше любого срока, поэтому
+     * загрузчик покажет его сразу и обновит из сети.
+     */
+    static boolean isExpired(int dayMsk, int todayMsk, long updatedAtMillis, long nowMillis) {
+        if (dayMsk < todayMsk) {
+            return true;
+        }
+        if (updatedAtMillis <= 0) {
+            return false;
+        }
+        return nowMillis - updatedAtMillis > getTtlMillis(dayMsk - todayMsk);
+    }
+
+    private static long getTtlMillis(int daysAhead) {
+        if (daysAhead == 0) {
+            return TODAY_TTL_MILLIS;
+        } else if (daysAhead <= NEAR_DAYS) {
+            return NEAR_TTL_MILLIS;
+        }
+        return FAR_TTL_MILLIS;
+    }
+
+    private TimetableCachePolicy() {}
+}
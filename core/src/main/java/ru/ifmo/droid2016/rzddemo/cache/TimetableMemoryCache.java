@@ -0,0 +1,181 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+
+/**
+ * Общий для всего процесса LRU кэш расписаний в памяти, который стоит перед базой данных.
+ *
+ * Размер ограничен как по числу маршрутов-дней, так и по примерному объему занимаемой памяти.
+ * Хранимые списки неизменяемые, поэтому их можно отдавать наружу без копирования.
+ */
+final class TimetableMemoryCache {
+
+    private static final int MAX_ENTRIES = 64;
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    private static final TimetableMemoryCache instance =
+            new TimetableMemoryCache(MAX_ENTRIES, MAX_BYTES);
+
+    @AnyThread
+    @NonNull
+    static TimetableMemoryCache getInstance() {
+        return instance;
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Порядок доступа: первый элемент -- давно не использовавшийся
+    private final LinkedHashMap<RouteDayKey, Node> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long sizeBytes;
+
+    TimetableMemoryCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    @AnyThread
+    @Nullable
+    synchronized CachedTimetable get(@NonNull RouteDayKey key) {
+        final Node node = map.get(key);
+        return node == null ? null : node.cached;
+    }
+
+    /**
+     * Кладет расписание в кэш.
+     *
+     * @return то, что теперь хранится в кэше: с неизменяемой копией переданного списка.
+     */
+    @AnyThread
+    @NonNull
+    CachedTimetable put(@NonNull RouteDayKey key,
+                        @NonNull List<TimetableEntry> timetable,
+                        long updatedAtMillis) {
+        final List<TimetableEntry> copy =
+                Collections.unmodifiableList(new ArrayList<>(timetable));
+        final CachedTimetable cached = new CachedTimetable(copy, updatedAtMillis);
+        final Node node = new Node(cached, estimateSize(key, copy));
+
+        synchronized (this) {
+            putNode(key, node);
+        }
+        return cached;
+    }
+
+    /**
+     * Кладет расписание в кэш, если там нет более свежего (или такого же по времени записи)
+     * для того же маршрута-дня. Нужно для данных, прочитанных из БД: пока они читались,
+     * в кэш могли записать новые.
+     *
+     * @return то, что теперь хранится в кэше.
+     */
+    @AnyThread
+    @NonNull
+    CachedTimetable putIfNewer(@NonNull RouteDayKey key,
+                               @NonNull List<TimetableEntry> timetable,
+                               long updatedAtMillis) {
+        synchronized (this) {
+            final Node old = map.get(key);
+            if (old != null && old.cached.updatedAtMillis >= updatedAtMillis) {
+                return old.cached;
+            }
+        }
+        final List<TimetableEntry> copy =
+                Collections.unmodifiableList(new ArrayList<>(timetable));
+        final CachedTimetable cached = new CachedTimetable(copy, updatedAtMillis);
+        final Node node = new Node(cached, estimateSize(key, copy));
+
+        synchronized (this) {
+            final Node old = map.get(key);
+            if (old != null && old.cached.updatedAtMillis >= updatedAtMillis) {
+                // Записали, пока копировали список
+                return old.cached;
+            }
+            putNode(key, node);
+        }
+        return cached;
+    }
+
+    @AnyThread
+    synchronized void remove(@NonNull RouteDayKey key) {
+        final Node old = map.remove(key);
+        if (old != null) {
+            sizeBytes -= old.sizeBytes;
+        }
+    }
+
+    @AnyThread
+    synchronized void clear() {
+        map.clear();
+        sizeBytes = 0;
+    }
+
+    @AnyThread
+    synchronized int getEntryCount() {
+        return map.size();
+    }
+
+    /**
+     * @return примерный объем памяти, занимаемый всеми расписаниями в кэше.
+     */
+    @AnyThread
+    synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    private void putNode(@NonNull RouteDayKey key, @NonNull Node node) {
+        final Node old = map.put(key, node);
+        if (old != null) {
+            sizeBytes -= old.sizeBytes;
+        }
+        sizeBytes += node.sizeBytes;
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        final Iterator<Map.Entry<RouteDayKey, Node>> it = map.entrySet().iterator();
+        // Самый свежий элемент оставляем всегда, даже если он один больше лимита
+        while (map.size() > 1 && (map.size() > maxEntries || sizeBytes > maxBytes)
+                && it.hasNext()) {
+            final Node eldest = it.next().getValue();
+            sizeBytes -= eldest.sizeBytes;
+            it.remove();
+        }
+    }
+
+    /**
+     * Примерный объем памяти, занимаемый расписанием. Строки не учитываются: они общие для
+     * всех расписаний (см. {@link ru.ifmo.droid2016.rzddemo.model.StringPool}).
+     */
+    private static long estimateSize(@NonNull RouteDayKey key,
+                                     @NonNull List<TimetableEntry> timetable) {
+        return 64 + 2 * (key.fromStationId.length() + key.toStationId.length())
+                + (long) timetable.size() * (ENTRY_BYTES + REFERENCE_BYTES);
+    }
+
+    // Заголовок объекта TimetableEntry, 8 ссылок и 2 int
+    private static final int ENTRY_BYTES = 12 + 8 * 4 + 2 * 4;
+    private static final int REFERENCE_BYTES = 4;
+
+    private static final class Node {
+        final CachedTimetable cached;
+        final long sizeBytes;
+
+        Node(CachedTimetable cached, long sizeBytes) {
+            this.cached = cached;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Очередь отложенной записи (write-behind): что записать и когда, без самой записи.
+ *
+ * Повторная постановка ключа, который еще не записан, заменяет предыдущее значение и ставит
+ * ключ в конец очереди. Пока значение не записано, его видно через {@link #get}. Порция
+ * ({@link #peekBatch}) -- не больше maxBatchSize первых ключей; поток записи ждет ее
+ * ({@link #awaitBatch}) не дольше batchDelayMillis, если не попросили записать очередь сразу.
+ * Очередь ограничена maxPending ключами: при переполнении {@link #put} ждет, пока записанные
+ * порции не уберут из нее ({@link #removeWritten}).
+ *
+ * Потокобезопасная.
+ */
+final class WriteBehindQueue<K, V> {
+
+    private final int maxBatchSize;
+    private final int maxPending;
+    private final long batchDelayMillis;
+
+    // Доступ под this. Порядок добавления -- порядок записи
+    private final LinkedHashMap<K, V> pending = new LinkedHashMap<>();
+    // Доступ под this. Сбрасывается, когда очередь записана целиком
+    private boolean flushRequested;
+
+    WriteBehindQueue(int maxBatchSize, int maxPending, long batchDelayMillis) {
+        this.maxBatchSize = maxBatchSize;
+        this.maxPending = maxPending;
+        this.batchDelayMillis = batchDelayMillis;
+    }
+
+    /**
+     * Ставит значение в очередь, заменяя еще не записанное для того же ключа. Если очередь
+     * полна, просит записать ее сразу и ждет места.
+     */
+    @WorkerThread
+    synchronized void put(@NonNull K key, @NonNull V value) {
+        boolean interrupted = false;
+        while (pending.size() >= maxPending && !pending.containsKey(key)) {
+            flushRequested = true;
+            notifyAll();
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // Запись важнее ограничения очереди: дописываем сверх него
+                interrupted = true;
+                break;
+            }
+        }
+        // Заново, чтобы ключ встал в конец очереди
+        pending.remove(key);
+        pending.put(key, value);
+        notifyAll();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return еще не записанное значение или null.
+     */
+    @AnyThread
+    @Nullable
+    synchronized V get(@NonNull K key) {
+        return pending.get(key);
+    }
+
+    @AnyThread
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Просит записать всю очередь, не дожидаясь накопления порций.
+     */
+    @AnyThread
+    synchronized void requestFlush() {
+        flushRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Ждет, пока в очереди что-нибудь появится, а затем -- полной порции, просьбы записать
+     * очередь или истечения batchDelayMillis.
+     */
+    @WorkerThread
+    synchronized void awaitBatch() throws InterruptedException {
+        while (pending.isEmpty()) {
+            wait();
+        }
+        final long deadline = now() + batchDelayMillis;
+        long delay;
+        while (!flushRequested && pending.size() < maxBatchSize
+                && (delay = deadline - now()) > 0) {
+            wait(delay);
+        }
+    }
+
+    /**
+     * @return первые ключи очереди (не больше maxBatchSize) со значениями, в порядке записи.
+     *         Из очереди они не убираются.
+     */
+    @AnyThread
+    @NonNull
+    synchronized Map<K, V> peekBatch() {
+        final Map<K, V> batch = new LinkedHashMap<>();
+        final Iterator<Map.Entry<K, V>> it = pending.entrySet().iterator();
+        while (batch.size() < maxBatchSize && it.hasNext()) {
+            final Map.Entry<K, V> entry = it.next();
+            batch.put(entry.getKey(), entry.getValue());
+        }
+        return batch;
+    }
+
+    /**
+     * Убирает из очереди записанную порцию. Значения, поставленные за время записи, остаются.
+     */
+    @AnyThread
+    synchronized void removeWritten(@NonNull Map<K, V> batch) {
+        for (Map.Entry<K, V> written : batch.entrySet()) {
+            if (pending.get(written.getKey()) == written.getValue()) {
+                pending.remove(written.getKey());
+            }
+        }
+        if (pending.isEmpty()) {
+            flushRequested = false;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Отбрасывает все еще не записанные значения.
+     */
+    @AnyThread
+    synchronized void clear() {
+        pending.clear();
+        flushRequested = false;
+        notifyAll();
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -0,0 +1,136 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import ru.ifmo.droid2016.rzddemo.api.EntrySink;
+
+/**
+ * Идущие сейчас загрузки по ключам: кто первым зарегистрировал загрузку ключа, тот ее и
+ * выполняет, остальные присоединяются к ней ({@link #joinOrRegister}) и дожидаются ее
+ * результата, получая по пути промежуточные элементы.
+ *
+ * Потокобезопасный.
+ *
+ * @param <K> ключ загрузки.
+ * @param <R> результат загрузки.
+ * @param <E> промежуточный элемент (например, поезд).
+ */
+final class InFlightLoads<K, R, E> {
+
+    // Доступ под this
+    private final Map<K, Load<R, E>> loads = new HashMap<>();
+
+    /**
+     * @param load новая загрузка: регистрируется, если для ключа загрузки еще нет, и тогда
+     *             вызывающий -- ее владелец и должен завершить ее через {@link #finish}.
+     * @return уже идущая загрузка ключа или null, если зарегистрирована переданная.
+     */
+    @AnyThread
+    @Nullable
+    synchronized Load<R, E> joinOrRegister(@NonNull K key, @NonNull Load<R, E> load) {
+        final Load<R, E> existing = loads.get(key);
+        if (existing == null) {
+            loads.put(key, load);
+        }
+        return existing;
+    }
+
+    /**
+     * Снимает загрузку с регистрации и отдает результат всем, кто ее ждет.
+     *
+     * @param result результат или null, если загрузка не получила данных для этого ключа
+     *               и ожидающим нужно загрузить их самим.
+     */
+    @AnyThread
+    void finish(@NonNull K key, @NonNull Load<R, E> load, @Nullable R result) {
+        synchronized (this) {
+            if (loads.get(key) == load) {
+                loads.remove(key);
+            }
+        }
+        load.complete(result);
+    }
+
+    /**
+     * @return ключи загрузок, идущих прямо сейчас.
+     */
+    @AnyThread
+    @NonNull
+    synchronized List<K> getKeys() {
+        return new ArrayList<>(loads.keySet());
+    }
+
+    /**
+     * Одна загрузка. Владелец передает в нее промежуточные элементы как в {@link EntrySink},
+     * а она раздает их всем получателям.
+     */
+    static final class Load<R, E> implements EntrySink<E> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile R result;
+
+        // Доступ под this
+        private final List<EntrySink<E>> sinks = new ArrayList<>(1);
+
+        /**
+         * Все элементы, полученные с начала загрузки, -- для новых получателей. Копятся, только
+         * пока есть получатели: если элемент пришел без них, список обнуляется, и новые
+         * получатели ждут только итогового результата, а не видят элементы с середины.
+         */
+        @Nullable
+        private List<E> entries = new ArrayList<>();
+
+        /**
+         * Подписывает получателя на промежуточные элементы, сначала передав ему уже
+         * полученные.
+         */
+        @AnyThread
+        synchronized void addSink(@NonNull EntrySink<E> sink) {
+            if (entries == null) {
+                return;
+            }
+            for (E entry : entries) {
+                sink.onEntry(entry);
+            }
+            sinks.add(sink);
+        }
+
+        @Override
+        public synchronized void onEntry(@NonNull E entry) {
+            if (sinks.isEmpty()) {
+                entries = null;
+                return;
+            }
+            if (entries != null) {
+                entries.add(entry);
+            }
+            for (EntrySink<E> sink : sinks) {
+                sink.onEntry(entry);
+            }
+        }
+
+        private void complete(@Nullable R result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        /**
+         * @return результат, переданный в {@link InFlightLoads#finish}.
+         */
+        @WorkerThread
+        @Nullable
+        R await() throws InterruptedException {
+            done.await();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ru.ifmo.droid2016.rzddemo.model;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Расписание поездов туда и обратно, полученное одним запросом.
+ */
+public class RoundTripTimetable {
+
+    /**
+     * Поезда от станции отправления до станции прибытия.
+     */
+    @NonNull
+    public final List<TimetableEntry> outbound;
+
+    /**
+     * Поезда в обратном направлении или null, если его нет в ответе.
+     */
+    @Nullable
+    public final List<TimetableEntry> inbound;
+
+    public RoundTripTimetable(@NonNull List<TimetableEntry> outbound,
+                              @Nullable List<TimetableEntry> inbound) {
+        this.outbound = outbound;
+        this.inbound = inbound;
+    }
+}
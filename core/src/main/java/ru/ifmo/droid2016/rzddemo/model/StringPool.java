@@ -0,0 +1,46 @@
+package ru.ifmo.droid2016.rzddemo.model;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Общий для процесса пул строк модели: названия станций, номера и названия поездов
+ * повторяются в сотнях элементов расписания, и хранить их достаточно в одном экземпляре.
+ *
+ * Размер пула ограничен: при переполнении он просто очищается, уже выданные строки
+ * продолжают работать.
+ */
+public final class StringPool {
+
+    private static final int MAX_SIZE = 4096;
+
+    private static final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+
+    /**
+     * @return строку, равную переданной, из пула.
+     */
+    @AnyThread
+    @NonNull
+    public static String intern(@NonNull String value) {
+        final String pooled = pool.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (pool.size() >= MAX_SIZE) {
+            pool.clear();
+        }
+        final String previous = pool.putIfAbsent(value, value);
+        return previous == null ? value : previous;
+    }
+
+    @AnyThread
+    @Nullable
+    public static String internNullable(@Nullable String value) {
+        return value == null ? null : intern(value);
+    }
+
+    private StringPool() {}
+}
@@ -0,0 +1,166 @@
+package ru.ifmo.droid2016.rzddemo.model;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Calendar;
+
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+/**
+ * Элемент расписания движения поездов.
+ *
+ * Время хранится в минутах с 01.01.1970 (UTC), строки -- через общий {@link StringPool},
+ * поэтому элемент занимает всего несколько десятков байт. {@link Calendar} в московском
+ * часовом поясе создается только по запросу.
+ */
+public class TimetableEntry {
+
+    /**
+     * ID станции отправления.
+     */
+    @NonNull
+    public final String departureStationId;
+
+    /**
+     * Название станции отправления.
+     */
+    @NonNull
+    public final String departureStationName;
+
+    /**
+     * Время отправления, минуты с 01.01.1970.
+     */
+    public final int departureTimeMinutes;
+
+    /**
+     * ID станции прибытия.
+     */
+    @NonNull
+    public final String arrivalStationId;
+
+    /**
+     * Название станции прибытия.
+     */
+    @NonNull
+    public final String arrivalStationName;
+
+    /**
+     * Время прибытия, минуты с 01.01.1970.
+     */
+    public final int arrivalTimeMinutes;
+
+    /**
+     * Номер поезда.
+     */
+    @NonNull
+    public final String trainRouteId;
+
+    /**
+     * Название поезда.
+     */
+    @Nullable
+    public final String trainName;
+
+    /**
+     * Название начальной станции поезда.
+     */
+    @NonNull
+    public final String routeStartStationName;
+
+    /**
+     * Название конечной станции поезда.
+     */
+    @NonNull
+    public final String routeEndStationName;
+
+    public TimetableEntry(@NonNull String departureStationId,
+                          @NonNull String departureStationName,
+                          int departureTimeMinutes,
+                          @NonNull String arrivalStationId,
+                          @NonNull String arrivalStationName,
+                          int arrivalTimeMinutes,
+                          @NonNull String trainRouteId,
+                          @Nullable String trainName,
+                          @NonNull String routeStartStationName,
+                          @NonNull String routeEndStationName) {
+        this.departureStationId = StringPool.intern(departureStationId);
+        this.departureStationName = StringPool.intern(departureStationName);
+        this.departureTimeMinutes = departureTimeMinutes;
+        this.arrivalStationId = StringPool.intern(arrivalStationId);
+        this.arrivalStationName = StringPool.intern(arrivalStationName);
+        this.arrivalTimeMinutes = arrivalTimeMinutes;
+        this.trainRouteId = StringPool.intern(trainRouteId);
+        this.trainName = StringPool.internNullable(trainName);
+        this.routeStartStationName = StringPool.intern(routeStartStationName);
+        this.routeEndStationName = StringPool.intern(routeEndStationName);
+    }
+
+    /**
+     * @return время отправления в московском часовом поясе (новый объект при каждом вызове).
+     */
+    @NonNull
+    public Calendar getDepartureTime() {
+        return toMskCalendar(departureTimeMinutes);
+    }
+
+    /**
+     * @return время прибытия в московском часовом поясе (новый объект при каждом вызове).
+     */
+    @NonNull
+    public Calendar getArrivalTime() {
+        return toMskCalendar(arrivalTimeMinutes);
+    }
+
+    /**
+     * @return копию элемента без названия поезда.
+     */
+    @NonNull
+    public TimetableEntry withoutTrainName() {
+        if (trainName == null) {
+            return this;
+        }
+        return new TimetableEntry(departureStationId, departureStationName, departureTimeMinutes,
+                arrivalStationId, arrivalStationName, arrivalTimeMinutes, trainRouteId, null,
+                routeStartStationName, routeEndStationName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TimetableEntry)) {
+            return false;
+        }
+        final TimetableEntry other = (TimetableEntry) o;
+        return departureTimeMinutes == other.departureTimeMinutes
+                && arrivalTimeMinutes == other.arrivalTimeMinutes
+                && departureStationId.equals(other.departureStationId)
+                && departureStationName.equals(other.departureStationName)
+                && arrivalStationId.equals(other.arrivalStationId)
+                && arrivalStationName.equals(other.arrivalStationName)
+                && trainRouteId.equals(other.trainRouteId)
+                && (trainName == null ? other.trainName == null
+                                      : trainName.equals(other.trainName))
+                && routeStartStationName.equals(other.routeStartStationName)
+                && routeEndStationName.equals(other.routeEndStationName);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = trainRouteId.hashCode();
+        result = 31 * result + departureTimeMinutes;
+        result = 31 * result + arrivalTimeMinutes;
+        result = 31 * result + departureStationId.hashCode();
+        result = 31 * result + arrivalStationId.hashCode();
+        return result;
+    }
+
+    @NonNull
+    private static Calendar toMskCalendar(int timeMinutes) {
+        final Calendar calendar = Calendar.getInstance(TimeUtils.getMskTimeZone());
+        calendar.setTimeInMillis(timeMinutes * TimeUtils.MINUTE_MILLIS);
+        return calendar;
+    }
+}
@@ -1,10 +1,5 @@
 package ru.ifmo.droid2016.rzddemo.utils;
 
-import android.content.Context;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.support.annotation.NonNull;
-
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
@@ -56,19 +51,6 @@ public final class IOUtils {
         closeSilently(in);
     }
 
-    /**
-     * @return Есть ли сейчас живое соединение?
-     */
-    public static boolean isConnectionAvailable(@NonNull Context context, boolean defaultValue) {
-        final ConnectivityManager connectivityManager =
-                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (connectivityManager == null) {
-            return defaultValue;
-        }
-        final NetworkInfo ni = connectivityManager.getActiveNetworkInfo();
-        return ni != null && ni.isConnected();
-    }
-
     /**
      * @return буфер размеров в 8кб для I/O. Потокобезопасный.ы
      */
@@ -0,0 +1,89 @@
+package ru.ifmo.droid2016.rzddemo.utils;
+
+import android.support.annotation.AnyThread;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма длительностей в миллисекундах с корзинами, растущими в геометрической
+ * прогрессии (примерно на 19%, четыре корзины на каждое удвоение) до 10 минут, и корзиной
+ * для всего, что дольше.
+ *
+ * Запись -- двоичный поиск и одна атомарная операция, без блокировок и выделения памяти.
+ * Перцентили оцениваются сверху: по верхней границе корзины.
+ */
+public final class LatencyHistogram {
+
+    private static final long MAX_BOUND_MILLIS = 10 * 60 * 1000;
+
+    // Верхние границы корзин (включительно), общие для всех гистограмм
+    private static final long[] BOUNDS = createBounds();
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+
+    @AnyThread
+    public void record(long millis) {
+        int index = Arrays.binarySearch(BOUNDS, Math.max(millis, 0));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        counts.incrementAndGet(index);
+    }
+
+    @AnyThread
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param fraction доля от 0 до 1, например 0.99 для p99.
+     * @return верхняя граница корзины, в которую попадает перцентиль, в миллисекундах;
+     * 0 для пустой гистограммы и {@link Long#MAX_VALUE}, если перцентиль дольше 10 минут.
+     */
+    @AnyThread
+    public long getPercentile(double fraction) {
+        final long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max((long) Math.ceil(fraction * count), 1);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return i < BOUNDS.length ? BOUNDS[i] : Long.MAX_VALUE;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @AnyThread
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    private static long[] createBounds() {
+        final long[] bounds = new long[128];
+        int size = 0;
+        bounds[size++] = 0;
+        double bound = 1;
+        while (bounds[size - 1] < MAX_BOUND_MILLIS) {
+            bounds[size] = Math.max(bounds[size - 1] + 1, Math.round(bound));
+            size++;
+            bound *= 1.189207115; // 2^(1/4)
+        }
+        return Arrays.copyOf(bounds, size);
+    }
+}
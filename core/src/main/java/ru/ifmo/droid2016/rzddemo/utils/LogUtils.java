@@ -0,0 +1,75 @@
+package ru.ifmo.droid2016.rzddemo.utils;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.PrintStream;
+
+/**
+ * Запись в журнал из кода модуля core, не зависящая от платформы.
+ */
+public final class LogUtils {
+
+    /**
+     * Журнал по умолчанию для обычной JVM: предупреждения и ошибки пишутся в System.err,
+     * отладочные сообщения отбрасываются.
+     */
+    public static final Logger SYSTEM_ERR_LOGGER = new Logger() {
+        @Override
+        public void d(@NonNull String tag, @NonNull String message) {}
+
+        @Override
+        public void w(@NonNull String tag, @NonNull String message, @Nullable Throwable error) {
+            print("W", tag, message, error);
+        }
+
+        @Override
+        public void e(@NonNull String tag, @NonNull String message, @Nullable Throwable error) {
+            print("E", tag, message, error);
+        }
+
+        private void print(String level, String tag, String message, Throwable error) {
+            final PrintStream err = System.err;
+            // Под блокировкой потока, чтобы сообщения из разных потоков не перемешивались
+            synchronized (err) {
+                err.println(level + "/" + tag + ": " + message);
+                if (error != null) {
+                    error.printStackTrace(err);
+                }
+            }
+        }
+    };
+
+    private static volatile Logger logger = SYSTEM_ERR_LOGGER;
+
+    /**
+     * Задает журнал для всего процесса. Вызывается один раз при старте, до первой записи.
+     */
+    @AnyThread
+    public static void setLogger(@NonNull Logger logger) {
+        LogUtils.logger = logger;
+    }
+
+    public static void d(@NonNull String tag, @NonNull String message) {
+        logger.d(tag, message);
+    }
+
+    public static void w(@NonNull String tag, @NonNull String message) {
+        logger.w(tag, message, null);
+    }
+
+    public static void w(@NonNull String tag, @NonNull String message, @Nullable Throwable error) {
+        logger.w(tag, message, error);
+    }
+
+    public static void e(@NonNull String tag, @NonNull String message) {
+        logger.e(tag, message, null);
+    }
+
+    public static void e(@NonNull String tag, @NonNull String message, @Nullable Throwable error) {
+        logger.e(tag, message, error);
+    }
+
+    private LogUtils() {}
+}
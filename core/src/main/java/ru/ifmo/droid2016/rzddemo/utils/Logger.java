@@ -0,0 +1,17 @@
+package ru.ifmo.droid2016.rzddemo.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Журнал, в который пишет код модуля core. На Android это android.util.Log,
+ * на обычной JVM по умолчанию -- System.err (см. {@link LogUtils#setLogger}).
+ */
+public interface Logger {
+
+    void d(@NonNull String tag, @NonNull String message);
+
+    void w(@NonNull String tag, @NonNull String message, @Nullable Throwable error);
+
+    void e(@NonNull String tag, @NonNull String message, @Nullable Throwable error);
+}
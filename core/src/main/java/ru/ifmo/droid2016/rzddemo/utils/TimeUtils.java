@@ -0,0 +1,229 @@
+package ru.ifmo.droid2016.rzddemo.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.Calendar;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+
+import static ru.ifmo.droid2016.rzddemo.Constants.TAG;
+
+public final class TimeUtils {
+
+    /**
+     * Московский часовой пояс.
+     */
+    @NonNull
+    public static TimeZone getMskTimeZone() {
+        return MskTimeZoneHolder.MSK_TIME_ZONE;
+    }
+
+    public static Calendar getTomorrow0(TimeZone timeZone) {
+        Calendar now = Calendar.getInstance(TimeUtils.getMskTimeZone());
+        now.setTimeInMillis(System.currentTimeMillis());
+        now.set(Calendar.HOUR_OF_DAY, 0);
+        now.set(Calendar.MINUTE, 0);
+        now.set(Calendar.SECOND, 0);
+        now.set(Calendar.MILLISECOND, 0);
+        now.add(Calendar.DAY_OF_MONTH, 1);
+        return now;
+    }
+
+    public static Calendar getCurrentTime(TimeZone timeZone) {
+        Calendar now = Calendar.getInstance(TimeUtils.getMskTimeZone());
+        now.setTimeInMillis(System.currentTimeMillis());
+        return now;
+    }
+
+    public static Calendar getNextDay(Calendar date) {
+        Calendar nextDay = Calendar.getInstance(date.getTimeZone());
+        nextDay.setTime(date.getTime());
+        nextDay.add(Calendar.DAY_OF_MONTH, 1);
+        return nextDay;
+    }
+
+    /**
+     * @return порядковый номер дня (число дней с 01.01.1970) для указанного момента времени
+     * в московском часовом поясе.
+     */
+    public static int getMskDay(Calendar date) {
+        return getMskDay(date.getTimeInMillis());
+    }
+
+    /**
+     * @return порядковый номер дня (число дней с 01.01.1970) для указанного момента времени
+     * (в миллисекундах с 01.01.1970) в московском часовом поясе.
+     */
+    public static int getMskDay(long timeMillis) {
+        final long localMillis = timeMillis + getMskTimeZone().getOffset(timeMillis);
+        return (int) Math.floor(localMillis / (double) DAY_MILLIS);
+    }
+
+    /**
+     * @return минута суток (от 0 до 1439) для указанного момента времени
+     * (в миллисекундах с 01.01.1970) в московском часовом поясе.
+     */
+    public static int getMskMinuteOfDay(long timeMillis) {
+        final long localMillis = timeMillis + getMskTimeZone().getOffset(timeMillis);
+        long millisOfDay = localMillis % DAY_MILLIS;
+        if (millisOfDay < 0) {
+            millisOfDay += DAY_MILLIS;
+        }
+        return (int) (millisOfDay / MINUTE_MILLIS);
+    }
+
+    /**
+     * Разбирает дату в формате dd.MM.yyyy (день и месяц могут быть из одной цифры).
+     * Не создает объектов и не использует общего состояния, поэтому вызывается из любого потока.
+     *
+     * @return порядковый номер дня (число дней с 01.01.1970) или {@link #INVALID_DAY},
+     * если строка не в этом формате.
+     */
+    public static int parseDay(@NonNull CharSequence date) {
+        final int length = date.length();
+        int pos = 0;
+
+        int day = 0;
+        int digits = 0;
+        for (; pos < length && digits < 2 && isDigit(date.charAt(pos)); pos++, digits++) {
+            day = day * 10 + date.charAt(pos) - '0';
+        }
+        if (digits == 0 || pos >= length || date.charAt(pos++) != '.') {
+            return INVALID_DAY;
+        }
+
+        int month = 0;
+        digits = 0;
+        for (; pos < length && digits < 2 && isDigit(date.charAt(pos)); pos++, digits++) {
+            month = month * 10 + date.charAt(pos) - '0';
+        }
+        if (digits == 0 || pos >= length || date.charAt(pos++) != '.') {
+            return INVALID_DAY;
+        }
+
+        if (length - pos != 4) {
+            return INVALID_DAY;
+        }
+        int year = 0;
+        for (; pos < length; pos++) {
+            if (!isDigit(date.charAt(pos))) {
+                return INVALID_DAY;
+            }
+            year = year * 10 + date.charAt(pos) - '0';
+        }
+
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            return INVALID_DAY;
+        }
+        return daysFromEpoch(year, month, day);
+    }
+
+    /**
+     * Разбирает время в формате HH:mm (час может быть из одной цифры).
+     * Не создает объектов и не использует общего состояния, поэтому вызывается из любого потока.
+     *
+     * @return минута суток (от 0 до 1439) или -1, если строка не в этом формате.
+     */
+    public static int parseMinuteOfDay(@NonNull CharSequence time) {
+        final int length = time.length();
+        int pos = 0;
+
+        int hours = 0;
+        int digits = 0;
+        for (; pos < length && digits < 2 && isDigit(time.charAt(pos)); pos++, digits++) {
+            hours = hours * 10 + time.charAt(pos) - '0';
+        }
+        if (digits == 0 || pos >= length || time.charAt(pos++) != ':' || length - pos != 2) {
+            return -1;
+        }
+
+        final char m0 = time.charAt(pos);
+        final char m1 = time.charAt(pos + 1);
+        if (!isDigit(m0) || !isDigit(m1)) {
+            return -1;
+        }
+        final int minutes = (m0 - '0') * 10 + (m1 - '0');
+
+        if (hours > 23 || minutes > 59) {
+            return -1;
+        }
+        return hours * 60 + minutes;
+    }
+
+    /**
+     * @return момент времени (в миллисекундах с 01.01.1970) для указанных дня
+     * (см. {@link #parseDay}) и минуты суток по московскому времени.
+     */
+    public static long getMskTimeMillis(int day, int minuteOfDay) {
+        final long localMillis = day * DAY_MILLIS + minuteOfDay * MINUTE_MILLIS;
+        final TimeZone timeZone = getMskTimeZone();
+        // Смещение на искомый момент, вычисленное по приближению со стандартным смещением
+        final int offset = timeZone.getOffset(localMillis - timeZone.getRawOffset());
+        return localMillis - offset;
+    }
+
+    /**
+     * Число дней от 01.01.1970 до указанной даты пролептического григорианского календаря.
+     */
+    private static int daysFromEpoch(int year, int month, int day) {
+        // Год считается с марта, чтобы 29 февраля оказалось последним днем года
+        if (month <= 2) {
+            year--;
+        }
+        final int era = (year >= 0 ? year : year - 399) / 400;
+        final int yearOfEra = year - era * 400;
+        final int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                final boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4: case 6: case 9: case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Результат {@link #parseDay} для строки не в формате dd.MM.yyyy.
+     */
+    public static final int INVALID_DAY = Integer.MIN_VALUE;
+
+    public static final long MINUTE_MILLIS = 60 * 1000;
+
+    private static final long DAY_MILLIS = 24L * 3600 * 1000;
+
+    /**
+     * Часовой пояс создается при первом обращении, а безопасную публикацию для всех потоков
+     * (парсеры, загрузка диапазона, вытеснение и запись кэша) обеспечивает инициализация класса.
+     */
+    private static final class MskTimeZoneHolder {
+
+        static final TimeZone MSK_TIME_ZONE = createMskTimeZone();
+
+        @NonNull
+        private static TimeZone createMskTimeZone() {
+            TimeZone timeZone = null;
+            try {
+                timeZone = TimeZone.getTimeZone("Europe/Moscow");
+            } catch (Exception e) {
+                LogUtils.e(TAG, "Failed to get MSK time zone: " + e, e);
+            }
+            if (timeZone == null) {
+                timeZone = new SimpleTimeZone(3 * 3600 * 1000, "Europe/Moscow");
+            }
+            return timeZone;
+        }
+    }
+
+    private TimeUtils() {}
+}
@@ -0,0 +1,116 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static ru.ifmo.droid2016.rzddemo.api.RidPollScheduler.FIRST_POLL_SUCCESS_FACTOR;
+import static ru.ifmo.droid2016.rzddemo.api.RidPollScheduler.INITIAL_ESTIMATE_MILLIS;
+import static ru.ifmo.droid2016.rzddemo.api.RidPollScheduler.MAX_DELAY_MILLIS;
+import static ru.ifmo.droid2016.rzddemo.api.RidPollScheduler.MAX_WAIT_MILLIS;
+import static ru.ifmo.droid2016.rzddemo.api.RidPollScheduler.MIN_DELAY_MILLIS;
+
+public class RidPollSchedulerTest {
+
+    private static final long RID_TIME = 100000;
+
+    private RidPollScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new RidPollScheduler();
+    }
+
+    @Test
+    public void firstPollAfterEstimate() throws Exception {
+        final RidPollScheduler.Poll poll = scheduler.startPoll(RID_TIME);
+        assertEquals(INITIAL_ESTIMATE_MILLIS, poll.getNextDelayMillis(RID_TIME));
+    }
+
+    @Test
+    public void delayGrowsUpToMax() throws Exception {
+        final RidPollScheduler.Poll poll = scheduler.startPoll(RID_TIME);
+        long time = RID_TIME;
+        long delay = poll.getNextDelayMillis(time);
+        assertEquals(1000, delay);
+        final long[] expected = {1500, 2000, 2000};
+        for (long expectedDelay : expected) {
+            time += delay;
+            poll.onPoll(time);
+            poll.onNotReady();
+            delay = poll.getNextDelayMillis(time);
+            assertEquals(expectedDelay, delay);
+        }
+    }
+
+    @Test
+    public void successOnFirstPollNudgesEstimateDown() throws Exception {
+        final RidPollScheduler.Poll poll = scheduler.startPoll(RID_TIME);
+        poll.onPoll(RID_TIME + poll.getNextDelayMillis(RID_TIME));
+        poll.onReady();
+        // Образец 1000 * 0.8 = 800, оценка 1000 + 0.25 * (800 - 1000)
+        final long sample = Math.round(INITIAL_ESTIMATE_MILLIS * FIRST_POLL_SUCCESS_FACTOR);
+        assertEquals(1000 + Math.round(0.25f * (sample - 1000)), scheduler.getEstimateMillis());
+    }
+
+    @Test
+    public void successAfterNotReadyLearnsMidpoint() throws Exception {
+        final RidPollScheduler.Poll poll = scheduler.startPoll(RID_TIME);
+        poll.onPoll(RID_TIME + 1000);
+        poll.onNotReady();
+        poll.onPoll(RID_TIME + 2500);
+        poll.onReady();
+        // Образец (1000 + 2500) / 2 = 1750, оценка 1000 + 0.25 * 750
+        assertEquals(1188, scheduler.getEstimateMillis());
+    }
+
+    @Test
+    public void estimateIsClamped() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            final RidPollScheduler.Poll poll = scheduler.startPoll(RID_TIME);
+            poll.onPoll(RID_TIME);
+            poll.onReady();
+        }
+        assertEquals(MIN_DELAY_MILLIS, scheduler.getEstimateMillis());
+
+        for (int i = 0; i < 50; i++) {
+            final RidPollScheduler.Poll poll = scheduler.startPoll(RID_TIME);
+            poll.onPoll(RID_TIME + 10000);
+            poll.onNotReady();
+            poll.onPoll(RID_TIME + 14000);
+            poll.onReady();
+        }
+        assertEquals(MAX_DELAY_MILLIS, scheduler.getEstimateMillis());
+    }
+
+    @Test
+    public void timeoutDoesNotChangeEstimate() throws Exception {
+        final RidPollScheduler.Poll poll = scheduler.startPoll(RID_TIME);
+        long time = RID_TIME;
+        try {
+            while (true) {
+                time += poll.getNextDelayMillis(time);
+                poll.onPoll(time);
+                poll.onNotReady();
+            }
+        } catch (RidNotReadyException e) {
+            // Ожидаемо
+        }
+        assertTrue(time - RID_TIME <= MAX_WAIT_MILLIS);
+        // Даже если после отказа кто-то сообщит об успехе, оценка не меняется
+        poll.onReady();
+        assertEquals(INITIAL_ESTIMATE_MILLIS, scheduler.getEstimateMillis());
+    }
+
+    @Test
+    public void firstPollIsNeverRefused() throws Exception {
+        final RidPollScheduler.Poll poll = scheduler.startPoll(RID_TIME);
+        try {
+            poll.getNextDelayMillis(RID_TIME + MAX_WAIT_MILLIS);
+        } catch (RidNotReadyException e) {
+            fail("First poll must always be made");
+        }
+    }
+}
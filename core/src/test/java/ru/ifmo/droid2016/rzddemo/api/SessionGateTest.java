@@ -0,0 +1,184 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SessionGateTest {
+
+    @Test
+    public void existingSessionIsNotRequested() throws Exception {
+        final FakeSession session = new FakeSession();
+        session.hasSession = true;
+        new SessionGate(session).ensureSession();
+        assertEquals(0, session.requests.get());
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentCallersShareOneRequest() throws Exception {
+        final FakeSession session = new FakeSession();
+        session.blockRequest();
+        final SessionGate gate = new SessionGate(session);
+
+        final List<Caller> callers = startCallers(gate, 4);
+        session.requestStarted.await();
+        awaitWaiting(callers);
+        session.release.countDown();
+        for (Caller caller : callers) {
+            caller.join();
+            assertNull(caller.error);
+        }
+        assertEquals(1, session.requests.get());
+    }
+
+    @Test(timeout = 10000)
+    public void failureIsSharedWithWaiters() throws Exception {
+        final FakeSession session = new FakeSession();
+        session.blockRequest();
+        session.failure = new IOException("no network");
+        final SessionGate gate = new SessionGate(session);
+
+        final List<Caller> callers = startCallers(gate, 3);
+        session.requestStarted.await();
+        awaitWaiting(callers);
+        session.release.countDown();
+        for (Caller caller : callers) {
+            caller.join();
+            assertTrue(caller.error instanceof IOException);
+        }
+        assertEquals(1, session.requests.get());
+
+        // Следующий вызов запрашивает сессию заново
+        session.failure = null;
+        gate.ensureSession();
+        assertEquals(2, session.requests.get());
+    }
+
+    @Test
+    public void badResponseIsThrownToOwner() throws Exception {
+        final FakeSession session = new FakeSession();
+        session.failure = new BadResponseException("HTTP: 500");
+        try {
+            new SessionGate(session).ensureSession();
+            fail();
+        } catch (BadResponseException e) {
+            assertEquals("HTTP: 500", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void waiterRetriesAbandonedRequest() throws Exception {
+        final FakeSession session = new FakeSession();
+        session.blockRequest();
+        final SessionGate gate = new SessionGate(session);
+
+        final Caller owner = new Caller(gate);
+        owner.start();
+        session.requestStarted.await();
+        final Caller waiter = new Caller(gate);
+        waiter.start();
+        awaitWaiting(waiter);
+
+        // Прерванный запрос не считается успешным: ждущий выполняет его сам
+        owner.interrupt();
+        owner.join();
+        session.release.countDown();
+        waiter.join();
+        assertTrue(owner.error instanceof InterruptedException);
+        assertNull(waiter.error);
+        assertEquals(2, session.requests.get());
+    }
+
+    private static List<Caller> startCallers(SessionGate gate, int count) {
+        final List<Caller> callers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Caller caller = new Caller(gate);
+            caller.start();
+            callers.add(caller);
+        }
+        return callers;
+    }
+
+    /**
+     * Ждет, пока все потоки не станут ждать: выполняющий запрос -- ответа, остальные --
+     * окончания запроса.
+     */
+    private static void awaitWaiting(List<Caller> callers) throws InterruptedException {
+        int waiting;
+        do {
+            Thread.sleep(1);
+            waiting = 0;
+            for (Caller caller : callers) {
+                if (caller.getState() == Thread.State.WAITING) {
+                    waiting++;
+                }
+            }
+        } while (waiting < callers.size());
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static final class FakeSession implements SessionGate.Session {
+
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch requestStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(0);
+        volatile boolean hasSession;
+        volatile Exception failure;
+
+        void blockRequest() {
+            release = new CountDownLatch(1);
+        }
+
+        @Override
+        public boolean hasSession() {
+            return hasSession;
+        }
+
+        @Override
+        public void requestSession()
+                throws IOException, BadResponseException, InterruptedException {
+            requests.incrementAndGet();
+            requestStarted.countDown();
+            release.await();
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw (BadResponseException) failure;
+            }
+            hasSession = true;
+        }
+    }
+
+    private static final class Caller extends Thread {
+
+        private final SessionGate gate;
+        volatile Exception error;
+
+        Caller(SessionGate gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public void run() {
+            try {
+                gate.ensureSession();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+}
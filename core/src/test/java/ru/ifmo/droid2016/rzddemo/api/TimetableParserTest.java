@@ -0,0 +1,121 @@
+package ru.ifmo.droid2016.rzddemo.api;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import ru.ifmo.droid2016.rzddemo.model.RoundTripTimetable;
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+import ru.ifmo.droid2016.rzddemo.utils.TimeUtils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class TimetableParserTest {
+
+    private static final String FROM_ID = "2004000";
+    private static final String TO_ID = "2000000";
+
+    private static final int DAY_THERE = TimeUtils.parseDay("01.12.2016");
+    private static final int DAY_BACK = TimeUtils.parseDay("05.12.2016");
+
+    @Test
+    public void takesFirstTpEvenIfCodesDoNotMatchRequest() throws Exception {
+        // Коды станций в ответе могут отличаться от запрошенных (например, код вокзала
+        // вместо кода города) -- расписание все равно берется из первого элемента
+        final List<TimetableEntry> timetable = parse("{\"result\":\"OK\",\"tp\":["
+                + tp("2004001", "2006004", train("001А"))
+                + "," + tp("2006004", "2004001", train("002А"))
+                + "]}");
+        assertEquals(1, timetable.size());
+        final TimetableEntry entry = timetable.get(0);
+        assertEquals("001А", entry.trainRouteId);
+        assertEquals(FROM_ID, entry.departureStationId);
+        assertEquals(TO_ID, entry.arrivalStationId);
+    }
+
+    @Test
+    public void roundTripMatchesDirectionsByPositionIfCodesDoNotMatch() throws Exception {
+        final RoundTripTimetable timetable = parseRoundTrip("{\"result\":\"OK\",\"tp\":["
+                + tp("2004001", "2006004", train("001А"))
+                + "," + tp("2006004", "2004001", train("002А"))
+                + "]}", DAY_THERE, DAY_BACK);
+        assertEquals("001А", timetable.outbound.get(0).trainRouteId);
+        assertEquals(FROM_ID, timetable.outbound.get(0).departureStationId);
+        assertNotNull(timetable.inbound);
+        final TimetableEntry back = timetable.inbound.get(0);
+        assertEquals("002А", back.trainRouteId);
+        assertEquals(TO_ID, back.departureStationId);
+        assertEquals(FROM_ID, back.arrivalStationId);
+    }
+
+    @Test
+    public void roundTripMatchesDirectionsByDate() throws Exception {
+        // Обратное направление пришло первым, но даты элементов это показывают
+        final RoundTripTimetable timetable = parseRoundTrip("{\"result\":\"OK\",\"tp\":["
+                + tp("2006004", "2004001", "05.12.2016", train("002А"))
+                + "," + tp("2004001", "2006004", "01.12.2016", train("001А"))
+                + "]}", DAY_THERE, DAY_BACK);
+        assertEquals("001А", timetable.outbound.get(0).trainRouteId);
+        assertNotNull(timetable.inbound);
+        assertEquals("002А", timetable.inbound.get(0).trainRouteId);
+        assertEquals(TO_ID, timetable.inbound.get(0).departureStationId);
+    }
+
+    @Test(expected = BadResponseException.class)
+    public void roundTripWithoutReturnIsBadResponse() throws Exception {
+        parseRoundTrip("{\"result\":\"OK\",\"tp\":["
+                + tp(FROM_ID, TO_ID, train("001А")) + "]}", DAY_THERE, DAY_BACK);
+    }
+
+    @Test
+    public void skipsInvalidEntries() throws Exception {
+        final List<TimetableEntry> timetable = parse("{\"result\":\"OK\",\"tp\":["
+                + tp(FROM_ID, TO_ID, train("001А") + ",{\"number\":\"003А\"}") + "]}");
+        assertEquals(1, timetable.size());
+    }
+
+    @Test(expected = RidNotReadyException.class)
+    public void ridResultIsNotReady() throws Exception {
+        parse("{\"result\":\"RID\",\"RID\":\"12345\"}");
+    }
+
+    @Test(expected = BadResponseException.class)
+    public void okWithoutTpIsBadResponse() throws Exception {
+        parse("{\"result\":\"OK\"}");
+    }
+
+    private static List<TimetableEntry> parse(String json)
+            throws IOException, BadResponseException {
+        final byte[] bytes = json.getBytes(Charset.forName("UTF-8"));
+        return new TimetableParser(FROM_ID, TO_ID).parse(new ByteArrayInputStream(bytes), "UTF-8");
+    }
+
+    private static RoundTripTimetable parseRoundTrip(String json, int dayThere, int dayBack)
+            throws IOException, BadResponseException {
+        final byte[] bytes = json.getBytes(Charset.forName("UTF-8"));
+        return new RoundTripTimetableParser(FROM_ID, TO_ID, dayThere, dayBack)
+                .parse(new ByteArrayInputStream(bytes), "UTF-8");
+    }
+
+    private static String tp(String fromCode, String whereCode, String list) {
+        return "{\"fromCode\":\"" + fromCode + "\",\"whereCode\":\"" + whereCode
+                + "\",\"list\":[" + list + "]}";
+    }
+
+    private static String tp(String fromCode, String whereCode, String date, String list) {
+        return "{\"date\":\"" + date + "\",\"fromCode\":\"" + fromCode
+                + "\",\"whereCode\":\"" + whereCode + "\",\"list\":[" + list + "]}";
+    }
+
+    private static String train(String number) {
+        return "{\"number\":\"" + number + "\",\"brand\":\"\","
+                + "\"route0\":\"С-ПЕТЕР-ГЛ\",\"route1\":\"МОСКВА ОКТ\","
+                + "\"station0\":\"С-ПЕТЕР-ГЛ\",\"station1\":\"МОСКВА ОКТ\","
+                + "\"date0\":\"01.12.2016\",\"time0\":\"23:55\","
+                + "\"date1\":\"02.12.2016\",\"time1\":\"07:55\"}";
+    }
+}
@@ -0,0 +1,181 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimetableBlobCodecTest {
+
+    private static final String FROM_ID = "2004000";
+    private static final String TO_ID = "2000000";
+
+    // 01.12.2016 00:00 MSK в минутах
+    private static final int DAY_START = 24675660;
+
+    @Test
+    public void roundTrip() throws Exception {
+        final Dictionary strings = new Dictionary();
+        final List<TimetableEntry> timetable = Arrays.asList(
+                entry(DAY_START + 10, 480, "001А", "Красная стрела"),
+                entry(DAY_START + 70, 500, "003А", null),
+                entry(DAY_START + 1430, 240, "151А", "Сапсан"));
+        final byte[] data = TimetableBlobCodec.encode(timetable, true, strings);
+        assertEquals(timetable, decode(data, true, strings));
+    }
+
+    @Test
+    public void roundTripEmpty() throws Exception {
+        final Dictionary strings = new Dictionary();
+        final byte[] data = TimetableBlobCodec.encode(
+                Collections.<TimetableEntry>emptyList(), true, strings);
+        assertEquals(0, decode(data, true, strings).size());
+    }
+
+    @Test
+    public void roundTripNegativeDeltas() throws Exception {
+        // Поезда не по порядку времени отправления и прибытие раньше отправления
+        final Dictionary strings = new Dictionary();
+        final List<TimetableEntry> timetable = Arrays.asList(
+                entry(DAY_START + 1000, 300, "001А", null),
+                entry(DAY_START + 5, 100, "002А", null),
+                entry(DAY_START + 900, -30, "003А", null),
+                entry(DAY_START - 2000, 0, "004А", null));
+        final byte[] data = TimetableBlobCodec.encode(timetable, true, strings);
+        assertEquals(timetable, decode(data, true, strings));
+    }
+
+    @Test
+    public void withoutTrainNames() throws Exception {
+        final Dictionary strings = new Dictionary();
+        final List<TimetableEntry> timetable =
+                Collections.singletonList(entry(DAY_START, 480, "001А", "Красная стрела"));
+
+        final byte[] withNames = TimetableBlobCodec.encode(timetable, true, strings);
+        assertNull(decode(withNames, false, strings).get(0).trainName);
+
+        final byte[] withoutNames = TimetableBlobCodec.encode(timetable, false, strings);
+        assertNull(decode(withoutNames, true, strings).get(0).trainName);
+    }
+
+    @Test
+    public void reportsTrainNames() throws Exception {
+        final Dictionary strings = new Dictionary();
+        final List<TimetableEntry> timetable =
+                Collections.singletonList(entry(DAY_START, 480, "001А", null));
+
+        final byte[] withNames = TimetableBlobCodec.encode(timetable, true, strings);
+        assertTrue(TimetableBlobCodec.decode(withNames, FROM_ID, TO_ID, false, strings)
+                .hasTrainNames);
+
+        // Так записывает данные версия V1
+        final byte[] withoutNames = TimetableBlobCodec.encode(timetable, false, strings);
+        assertFalse(TimetableBlobCodec.decode(withoutNames, FROM_ID, TO_ID, true, strings)
+                .hasTrainNames);
+    }
+
+    @Test
+    public void readsAllStringIds() throws Exception {
+        final Dictionary strings = new Dictionary();
+        final List<TimetableEntry> timetable = Arrays.asList(
+                entry(DAY_START, 480, "001А", "Красная стрела"),
+                entry(DAY_START + 60, 480, "003А", null));
+        final byte[] data = TimetableBlobCodec.encode(timetable, true, strings);
+
+        final Set<Integer> ids = new HashSet<>();
+        TimetableBlobCodec.readStringIds(data, ids);
+        assertEquals(strings.values.keySet(), ids);
+    }
+
+    @Test
+    public void rejectsCorruptData() throws Exception {
+        final Dictionary strings = new Dictionary();
+        final byte[] data = TimetableBlobCodec.encode(Arrays.asList(
+                entry(DAY_START, 480, "001А", "Красная стрела"),
+                entry(DAY_START + 60, 480, "003А", null)), true, strings);
+
+        for (int length = 0; length < data.length; length++) {
+            assertCorrupt(Arrays.copyOf(data, length), strings);
+        }
+
+        final byte[] badVersion = data.clone();
+        badVersion[0] = (byte) (TimetableBlobCodec.FORMAT_VERSION + 1);
+        assertCorrupt(badVersion, strings);
+
+        // Бесконечный varint
+        final byte[] badVarint = new byte[16];
+        badVarint[0] = (byte) TimetableBlobCodec.FORMAT_VERSION;
+        Arrays.fill(badVarint, 2, badVarint.length, (byte) 0xFF);
+        assertCorrupt(badVarint, strings);
+
+        // Ссылка на строку, которой нет в словаре
+        assertCorrupt(data, new Dictionary());
+    }
+
+    private static void assertCorrupt(byte[] data, Dictionary strings) {
+        try {
+            decode(data, true, strings);
+            fail("Decoded corrupt data: " + Arrays.toString(data));
+        } catch (TimetableBlobCodec.BadBlobException e) {
+            // Ожидаемо
+        }
+    }
+
+    private static List<TimetableEntry> decode(byte[] data,
+                                               boolean withTrainNames,
+                                               Dictionary strings)
+            throws TimetableBlobCodec.BadBlobException {
+        return TimetableBlobCodec.decode(data, FROM_ID, TO_ID, withTrainNames, strings)
+                .timetable;
+    }
+
+    private static TimetableEntry entry(int departure, int travelMinutes, String number,
+                                        String trainName) {
+        return new TimetableEntry(FROM_ID, "С-ПЕТЕР-ГЛ", departure,
+                TO_ID, "МОСКВА ОКТ", departure + travelMinutes,
+                number, trainName, "С-ПЕТЕР-ГЛ", "МОСКВА ОКТ");
+    }
+
+    private static final class Dictionary
+            implements TimetableBlobCodec.StringIds, TimetableBlobCodec.StringValues {
+
+        final Map<String, Integer> ids = new HashMap<>();
+        final Map<Integer, String> values = new HashMap<>();
+
+        @Override
+        public int idOf(@NonNull String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = ids.size();
+                ids.put(value, id);
+                values.put(id, value);
+            }
+            return id;
+        }
+
+        @NonNull
+        @Override
+        public String valueOf(int id) throws TimetableBlobCodec.BadBlobException {
+            final String value = values.get(id);
+            if (value == null) {
+                throw new TimetableBlobCodec.BadBlobException("No string with id=" + id);
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static ru.ifmo.droid2016.rzddemo.cache.TimetableCachePolicy.FAR_TTL_MILLIS;
+import static ru.ifmo.droid2016.rzddemo.cache.TimetableCachePolicy.NEAR_DAYS;
+import static ru.ifmo.droid2016.rzddemo.cache.TimetableCachePolicy.NEAR_TTL_MILLIS;
+import static ru.ifmo.droid2016.rzddemo.cache.TimetableCachePolicy.TODAY_TTL_MILLIS;
+import static ru.ifmo.droid2016.rzddemo.cache.TimetableCachePolicy.isExpired;
+
+public class TimetableCachePolicyTest {
+
+    private static final int TODAY = 17000;
+    private static final long NOW = 1500000000000L;
+
+    @Test
+    public void pastDayIsExpired() {
+        assertTrue(isExpired(TODAY - 1, TODAY, NOW, NOW));
+        assertTrue(isExpired(TODAY - 1, TODAY, 0, NOW));
+    }
+
+    @Test
+    public void unknownUpdateTimeIsServable() {
+        assertFalse(isExpired(TODAY, TODAY, 0, NOW));
+        assertFalse(isExpired(TODAY + NEAR_DAYS + 1, TODAY, 0, NOW));
+    }
+
+    @Test
+    public void unknownUpdateTimeIsOlderThanAnyTtl() {
+        final CachedTimetable cached =
+                new CachedTimetable(Collections.<TimetableEntry>emptyList(), 0);
+        assertTrue(cached.getAgeMillis() > FAR_TTL_MILLIS);
+    }
+
+    @Test
+    public void todayTtl() {
+        assertFalse(isExpired(TODAY, TODAY, NOW - TODAY_TTL_MILLIS, NOW));
+        assertTrue(isExpired(TODAY, TODAY, NOW - TODAY_TTL_MILLIS - 1, NOW));
+    }
+
+    @Test
+    public void nearTtl() {
+        assertFalse(isExpired(TODAY + 1, TODAY, NOW - NEAR_TTL_MILLIS, NOW));
+        assertTrue(isExpired(TODAY + 1, TODAY, NOW - NEAR_TTL_MILLIS - 1, NOW));
+        assertFalse(isExpired(TODAY + NEAR_DAYS, TODAY, NOW - NEAR_TTL_MILLIS, NOW));
+        assertTrue(isExpired(TODAY + NEAR_DAYS, TODAY, NOW - NEAR_TTL_MILLIS - 1, NOW));
+    }
+
+    @Test
+    public void farTtl() {
+        assertFalse(isExpired(TODAY + NEAR_DAYS + 1, TODAY, NOW - FAR_TTL_MILLIS, NOW));
+        assertTrue(isExpired(TODAY + NEAR_DAYS + 1, TODAY, NOW - FAR_TTL_MILLIS - 1, NOW));
+    }
+
+    @Test
+    public void freshDataIsNotExpired() {
+        assertFalse(isExpired(TODAY, TODAY, NOW, NOW));
+        assertFalse(isExpired(TODAY + 30, TODAY, NOW, NOW));
+    }
+}
@@ -0,0 +1,113 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.ifmo.droid2016.rzddemo.model.TimetableEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TimetableMemoryCacheTest {
+
+    // Размер расписания по оценке кэша: 64 байта на ключ из однобуквенных ID станций
+    // и 56 байт на поезд
+    private static final long KEY_BYTES = 68;
+    private static final long TRAIN_BYTES = 56;
+
+    @Test
+    public void evictsLeastRecentlyUsedByEntryCount() {
+        final TimetableMemoryCache cache = new TimetableMemoryCache(2, Long.MAX_VALUE);
+        cache.put(key(1), trains(1), 1);
+        cache.put(key(2), trains(1), 1);
+        // Обращение делает маршрут-день 1 свежим
+        assertNotNull(cache.get(key(1)));
+        cache.put(key(3), trains(1), 1);
+
+        assertEquals(2, cache.getEntryCount());
+        assertNotNull(cache.get(key(1)));
+        assertNull(cache.get(key(2)));
+        assertNotNull(cache.get(key(3)));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBySize() {
+        final long oneTrain = KEY_BYTES + TRAIN_BYTES;
+        final TimetableMemoryCache cache = new TimetableMemoryCache(100, 3 * oneTrain);
+        cache.put(key(1), trains(1), 1);
+        cache.put(key(2), trains(1), 1);
+        cache.put(key(3), trains(1), 1);
+        assertEquals(3 * oneTrain, cache.getSizeBytes());
+
+        // Расписание на два поезда вытесняет два самых давних
+        cache.put(key(4), trains(2), 1);
+        assertEquals(2, cache.getEntryCount());
+        assertNull(cache.get(key(1)));
+        assertNull(cache.get(key(2)));
+        assertNotNull(cache.get(key(3)));
+        assertEquals(oneTrain + KEY_BYTES + 2 * TRAIN_BYTES, cache.getSizeBytes());
+    }
+
+    @Test
+    public void keepsNewestEntryEvenIfTooLarge() {
+        final TimetableMemoryCache cache = new TimetableMemoryCache(10, KEY_BYTES);
+        cache.put(key(1), trains(1), 1);
+        cache.put(key(2), trains(5), 1);
+        assertEquals(1, cache.getEntryCount());
+        assertNull(cache.get(key(1)));
+        assertNotNull(cache.get(key(2)));
+    }
+
+    @Test
+    public void replaceAndRemoveUpdateSize() {
+        final TimetableMemoryCache cache = new TimetableMemoryCache(10, Long.MAX_VALUE);
+        cache.put(key(1), trains(3), 1);
+        cache.put(key(1), trains(1), 2);
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(KEY_BYTES + TRAIN_BYTES, cache.getSizeBytes());
+
+        cache.remove(key(1));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void putIfNewerKeepsFresherData() {
+        final TimetableMemoryCache cache = new TimetableMemoryCache(10, Long.MAX_VALUE);
+        final CachedTimetable fresh = cache.put(key(1), trains(2), 200);
+
+        assertSame(fresh, cache.putIfNewer(key(1), trains(1), 100));
+        assertSame(fresh, cache.putIfNewer(key(1), trains(1), 200));
+        assertEquals(200, cache.get(key(1)).updatedAtMillis);
+
+        final CachedTimetable newer = cache.putIfNewer(key(1), trains(1), 300);
+        assertSame(newer, cache.get(key(1)));
+        assertEquals(KEY_BYTES + TRAIN_BYTES, cache.getSizeBytes());
+    }
+
+    @Test
+    public void storesCopy() {
+        final TimetableMemoryCache cache = new TimetableMemoryCache(10, Long.MAX_VALUE);
+        final List<TimetableEntry> timetable = trains(1);
+        cache.put(key(1), timetable, 1);
+        timetable.clear();
+        assertEquals(1, cache.get(key(1)).timetable.size());
+    }
+
+    private static RouteDayKey key(int day) {
+        return new RouteDayKey("A", "B", day);
+    }
+
+    private static List<TimetableEntry> trains(int count) {
+        final List<TimetableEntry> timetable = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            timetable.add(new TimetableEntry("A", "С-ПЕТЕР-ГЛ", i * 60, "B", "МОСКВА ОКТ",
+                    i * 60 + 480, "00" + i + "А", null, "С-ПЕТЕР-ГЛ", "МОСКВА ОКТ"));
+        }
+        return timetable;
+    }
+}
@@ -0,0 +1,169 @@
+package ru.ifmo.droid2016.rzddemo.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindQueueTest {
+
+    private static final int MAX_BATCH = 32;
+    private static final int MAX_PENDING = 128;
+
+    // Больше времени любого теста: порция не набирается по таймеру
+    private static final long LONG_DELAY_MILLIS = 60000;
+
+    @Test
+    public void repeatedKeyReplacesValueAndMovesToEnd() {
+        final WriteBehindQueue<Integer, String> queue = newQueue(LONG_DELAY_MILLIS);
+        queue.put(1, "a");
+        queue.put(2, "b");
+        queue.put(1, "c");
+
+        assertEquals(2, queue.size());
+        assertEquals("c", queue.get(1));
+        assertEquals("[2, 1]", new ArrayList<>(queue.peekBatch().keySet()).toString());
+    }
+
+    @Test
+    public void batchIsLimitedAndInOrder() {
+        final WriteBehindQueue<Integer, String> queue = newQueue(LONG_DELAY_MILLIS);
+        for (int i = 0; i < MAX_BATCH + 8; i++) {
+            queue.put(i, "v" + i);
+        }
+
+        final Map<Integer, String> batch = queue.peekBatch();
+        assertEquals(MAX_BATCH, batch.size());
+        int expected = 0;
+        for (int key : batch.keySet()) {
+            assertEquals(expected++, key);
+        }
+        // Порция из очереди не убирается, пока не записана
+        assertEquals(MAX_BATCH + 8, queue.size());
+
+        queue.removeWritten(batch);
+        assertEquals(8, queue.size());
+        assertEquals(8, queue.peekBatch().size());
+    }
+
+    @Test(timeout = 10000)
+    public void fullBatchDoesNotWaitForDelay() throws Exception {
+        final WriteBehindQueue<Integer, String> queue = newQueue(LONG_DELAY_MILLIS);
+        for (int i = 0; i < MAX_BATCH; i++) {
+            queue.put(i, "v" + i);
+        }
+        queue.awaitBatch();
+    }
+
+    @Test(timeout = 10000)
+    public void partialBatchWaitsForDelay() throws Exception {
+        final WriteBehindQueue<Integer, String> queue = newQueue(50);
+        queue.put(1, "a");
+        final long startTime = System.nanoTime();
+        queue.awaitBatch();
+        assertTrue((System.nanoTime() - startTime) / 1000000 >= 50);
+    }
+
+    @Test(timeout = 10000)
+    public void flushRequestEndsWaitForBatch() throws Exception {
+        final WriteBehindQueue<Integer, String> queue = newQueue(LONG_DELAY_MILLIS);
+        queue.put(1, "a");
+        queue.requestFlush();
+        queue.awaitBatch();
+    }
+
+    @Test
+    public void pendingValueIsVisibleUntilWritten() {
+        final WriteBehindQueue<Integer, String> queue = newQueue(LONG_DELAY_MILLIS);
+        queue.put(1, "a");
+        queue.put(2, "b");
+        final Map<Integer, String> batch = queue.peekBatch();
+
+        // Пока порция пишется, ключ 1 поставили заново
+        queue.put(1, "c");
+        queue.removeWritten(batch);
+
+        assertEquals("c", queue.get(1));
+        assertNull(queue.get(2));
+        assertEquals(1, queue.size());
+    }
+
+    @Test(timeout = 10000)
+    public void putBlocksWhenFullUntilBatchIsWritten() throws Exception {
+        final WriteBehindQueue<Integer, String> queue = newQueue(LONG_DELAY_MILLIS);
+        for (int i = 0; i < MAX_PENDING; i++) {
+            queue.put(i, "v" + i);
+        }
+        // Ключ, который уже в очереди, места не занимает
+        queue.put(0, "w0");
+        assertEquals(MAX_PENDING, queue.size());
+
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.put(MAX_PENDING, "last");
+            }
+        });
+        producer.start();
+        awaitWaiting(producer);
+        assertNull(queue.get(MAX_PENDING));
+        // Переполнение просит записать очередь, не дожидаясь задержки
+        queue.awaitBatch();
+
+        queue.removeWritten(queue.peekBatch());
+        producer.join();
+        assertSame("last", queue.get(MAX_PENDING));
+        assertEquals(MAX_PENDING - MAX_BATCH + 1, queue.size());
+    }
+
+    @Test(timeout = 10000)
+    public void interruptedPutAddsOverLimit() throws Exception {
+        final WriteBehindQueue<Integer, String> queue = newQueue(LONG_DELAY_MILLIS);
+        for (int i = 0; i < MAX_PENDING; i++) {
+            queue.put(i, "v" + i);
+        }
+        final boolean[] interrupted = new boolean[1];
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                queue.put(MAX_PENDING, "last");
+                interrupted[0] = Thread.currentThread().isInterrupted();
+            }
+        });
+        producer.start();
+        awaitWaiting(producer);
+        producer.interrupt();
+        producer.join();
+
+        assertTrue(interrupted[0]);
+        assertEquals(MAX_PENDING + 1, queue.size());
+    }
+
+    @Test
+    public void clearDropsPending() {
+        final WriteBehindQueue<Integer, String> queue = newQueue(LONG_DELAY_MILLIS);
+        queue.put(1, "a");
+        queue.requestFlush();
+        queue.clear();
+
+        assertEquals(0, queue.size());
+        assertNull(queue.get(1));
+        assertFalse(queue.peekBatch().containsKey(1));
+    }
+
+    private static WriteBehindQueue<Integer, String> newQueue(long batchDelayMillis) {
+        return new WriteBehindQueue<>(MAX_BATCH, MAX_PENDING, batchDelayMillis);
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+}
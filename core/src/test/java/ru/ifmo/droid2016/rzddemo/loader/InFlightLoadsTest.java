@@ -0,0 +1,121 @@
+package ru.ifmo.droid2016.rzddemo.loader;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ru.ifmo.droid2016.rzddemo.api.EntrySink;
+import ru.ifmo.droid2016.rzddemo.loader.InFlightLoads.Load;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightLoadsTest {
+
+    private final InFlightLoads<String, String, Integer> loads = new InFlightLoads<>();
+
+    @Test
+    public void firstCallerOwnsLoadAndOthersJoin() {
+        final Load<String, Integer> own = new Load<>();
+        assertNull(loads.joinOrRegister("a", own));
+        assertSame(own, loads.joinOrRegister("a", new Load<String, Integer>()));
+        // Другой ключ -- другая загрузка
+        assertNull(loads.joinOrRegister("b", new Load<String, Integer>()));
+        final List<String> keys = loads.getKeys();
+        Collections.sort(keys);
+        assertEquals("[a, b]", keys.toString());
+    }
+
+    @Test(timeout = 10000)
+    public void joinersGetOwnersResult() throws Exception {
+        final Load<String, Integer> own = new Load<>();
+        loads.joinOrRegister("a", own);
+        final Load<String, Integer> joined = loads.joinOrRegister("a", new Load<String, Integer>());
+
+        final String[] received = new String[1];
+        final Thread joiner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    received[0] = joined.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        joiner.start();
+        loads.finish("a", own, "result");
+        joiner.join();
+
+        assertEquals("result", received[0]);
+        assertTrue(loads.getKeys().isEmpty());
+        // После завершения тот же ключ загружается заново
+        assertNull(loads.joinOrRegister("a", new Load<String, Integer>()));
+    }
+
+    @Test(timeout = 10000)
+    public void nullResultIsPassedToJoiners() throws Exception {
+        final Load<String, Integer> own = new Load<>();
+        loads.joinOrRegister("a", own);
+        loads.finish("a", own, null);
+        assertNull(own.await());
+    }
+
+    @Test
+    public void finishKeepsNewerLoadOfSameKey() {
+        final Load<String, Integer> first = new Load<>();
+        loads.joinOrRegister("a", first);
+        loads.finish("a", first, "first");
+        final Load<String, Integer> second = new Load<>();
+        loads.joinOrRegister("a", second);
+
+        // Повторное завершение первой загрузки не снимает вторую
+        loads.finish("a", first, "first");
+        assertSame(second, loads.joinOrRegister("a", new Load<String, Integer>()));
+    }
+
+    @Test
+    public void lateSinkReceivesEarlierEntries() {
+        final Load<String, Integer> load = new Load<>();
+        final RecordingSink first = new RecordingSink();
+        load.addSink(first);
+        load.onEntry(1);
+        load.onEntry(2);
+
+        final RecordingSink second = new RecordingSink();
+        load.addSink(second);
+        load.onEntry(3);
+
+        assertEquals("[1, 2, 3]", first.entries.toString());
+        assertEquals("[1, 2, 3]", second.entries.toString());
+    }
+
+    @Test
+    public void entriesAreNotBufferedWithoutSinks() {
+        final Load<String, Integer> load = new Load<>();
+        load.onEntry(1);
+
+        // Начало пропущено, поэтому середина новому получателю не нужна
+        final RecordingSink sink = new RecordingSink();
+        load.addSink(sink);
+        load.onEntry(2);
+
+        assertTrue(sink.entries.isEmpty());
+    }
+
+    private static final class RecordingSink implements EntrySink<Integer> {
+
+        final List<Integer> entries = new ArrayList<>();
+
+        @Override
+        public void onEntry(@NonNull Integer entry) {
+            entries.add(entry);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ru.ifmo.droid2016.rzddemo.utils;
+
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static ru.ifmo.droid2016.rzddemo.utils.TimeUtils.INVALID_DAY;
+import static ru.ifmo.droid2016.rzddemo.utils.TimeUtils.getMskDay;
+import static ru.ifmo.droid2016.rzddemo.utils.TimeUtils.getMskMinuteOfDay;
+import static ru.ifmo.droid2016.rzddemo.utils.TimeUtils.getMskTimeMillis;
+import static ru.ifmo.droid2016.rzddemo.utils.TimeUtils.parseDay;
+import static ru.ifmo.droid2016.rzddemo.utils.TimeUtils.parseMinuteOfDay;
+
+public class TimeUtilsTest {
+
+    @Test
+    public void parsesDays() {
+        assertEquals(0, parseDay("01.01.1970"));
+        assertEquals(0, parseDay("1.1.1970"));
+        assertEquals(-1, parseDay("31.12.1969"));
+        assertEquals(17136, parseDay("01.12.2016"));
+    }
+
+    @Test
+    public void parsesLeapDays() {
+        assertEquals(16860, parseDay("29.02.2016"));
+        assertEquals(16861, parseDay("01.03.2016"));
+        assertEquals(11016, parseDay("29.02.2000"));
+        assertEquals(INVALID_DAY, parseDay("29.02.2015"));
+        assertEquals(INVALID_DAY, parseDay("29.02.1900"));
+        assertEquals(INVALID_DAY, parseDay("30.02.2016"));
+    }
+
+    @Test
+    public void rejectsInvalidDays() {
+        final String[] invalid = {"", ".", "01.01", "01.01.", "1.1.70", "01.01.20166",
+                "001.01.2016", "01.001.2016", "00.01.2016", "32.01.2016", "31.04.2016",
+                "01.00.2016", "01.13.2016", "01-01-2016", "01.01.2016x", "aa.bb.cccc",
+                "01.01.2o16", " 01.01.2016"};
+        for (String date : invalid) {
+            assertEquals(date, INVALID_DAY, parseDay(date));
+        }
+    }
+
+    @Test
+    public void parsesMinutesOfDay() {
+        assertEquals(0, parseMinuteOfDay("00:00"));
+        assertEquals(0, parseMinuteOfDay("0:00"));
+        assertEquals(545, parseMinuteOfDay("9:05"));
+        assertEquals(1439, parseMinuteOfDay("23:59"));
+    }
+
+    @Test
+    public void rejectsInvalidMinutesOfDay() {
+        final String[] invalid = {"", ":", ":30", "12:", "12:5", "12:345", "123:00", "1205",
+                "24:00", "12:60", "a1:00", "12:0a", "12.30", " 12:30"};
+        for (String time : invalid) {
+            assertEquals(time, -1, parseMinuteOfDay(time));
+        }
+    }
+
+    @Test
+    public void convertsMskTimeWithCurrentOffset() {
+        // 01.12.2016 23:55 MSK (UTC+3)
+        assertEquals(utc(2016, Calendar.DECEMBER, 1, 20, 55),
+                getMskTimeMillis(parseDay("01.12.2016"), parseMinuteOfDay("23:55")));
+    }
+
+    @Test
+    public void convertsMskTimeWithHistoricOffsets() {
+        // До 27.03.2011: зимой UTC+3, летом UTC+4
+        assertEquals(utc(2010, Calendar.JANUARY, 15, 9, 0), msk("15.01.2010", "12:00"));
+        assertEquals(utc(2010, Calendar.JULY, 1, 8, 0), msk("01.07.2010", "12:00"));
+        // С 27.03.2011 по 26.10.2014 -- круглый год UTC+4
+        assertEquals(utc(2012, Calendar.JANUARY, 15, 8, 0), msk("15.01.2012", "12:00"));
+    }
+
+    @Test
+    public void convertsMskTimeAroundOffsetChanges() {
+        // Переход на летнее время 28.03.2010 в 02:00 -> 03:00
+        assertEquals(utc(2010, Calendar.MARCH, 27, 22, 59), msk("28.03.2010", "01:59"));
+        assertEquals(utc(2010, Calendar.MARCH, 27, 23, 0), msk("28.03.2010", "03:00"));
+        // Переход на зимнее время 31.10.2010 в 03:00 -> 02:00
+        assertEquals(utc(2010, Calendar.OCTOBER, 30, 21, 30), msk("31.10.2010", "01:30"));
+        assertEquals(utc(2010, Calendar.OCTOBER, 31, 0, 30), msk("31.10.2010", "03:30"));
+        // Переход на постоянное UTC+4 27.03.2011 в 02:00 -> 03:00
+        assertEquals(utc(2011, Calendar.MARCH, 26, 23, 30), msk("27.03.2011", "03:30"));
+        // Возврат к UTC+3 26.10.2014 в 02:00 -> 01:00
+        assertEquals(utc(2014, Calendar.OCTOBER, 25, 20, 30), msk("26.10.2014", "00:30"));
+        assertEquals(utc(2014, Calendar.OCTOBER, 25, 23, 30), msk("26.10.2014", "02:30"));
+    }
+
+    @Test
+    public void mskDayAndMinuteRoundTrip() {
+        final int firstDay = parseDay("01.01.2010");
+        final int lastDay = parseDay("31.12.2016");
+        final int[] minutes = {0, 1, 179, 180, 239, 240, 719, 1260, 1439};
+        for (int day = firstDay; day <= lastDay; day++) {
+            for (int minute : minutes) {
+                final long millis = getMskTimeMillis(day, minute);
+                if (getMskMinuteOfDay(millis) != minute) {
+                    // Время, пропущенное при переводе часов вперед
+                    continue;
+                }
+                assertEquals(day, getMskDay(millis));
+            }
+        }
+    }
+
+    @Test
+    public void mskTimeAgreesWithCalendar() {
+        final Calendar calendar = Calendar.getInstance(TimeUtils.getMskTimeZone());
+        calendar.clear();
+        calendar.set(2013, Calendar.JUNE, 10, 7, 45);
+        assertEquals(calendar.getTimeInMillis(), msk("10.06.2013", "07:45"));
+        assertEquals(7 * 60 + 45, getMskMinuteOfDay(calendar.getTimeInMillis()));
+        assertEquals(parseDay("10.06.2013"), getMskDay(calendar));
+    }
+
+    private static long msk(String date, String time) {
+        return getMskTimeMillis(parseDay(date), parseMinuteOfDay(time));
+    }
+
+    private static long utc(int year, int month, int day, int hour, int minute) {
+        final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute);
+        return calendar.getTimeInMillis();
+    }
+}